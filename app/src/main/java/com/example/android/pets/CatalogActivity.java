@@ -17,24 +17,33 @@ package com.example.android.pets;
 
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
+
+import java.io.IOException;
 
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetWriter;
 
 /**
  * Displays list of pets that were entered and stored in the app.
@@ -44,19 +53,68 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     private static final int CURSOR_LOADER = 1;
+    // Loader for search results. Page loaders start at CURSOR_LOADER, so this never clashes.
+    private static final int SEARCH_LOADER = 0;
+
+    // How long typing has to pause before a search runs, and the most results it shows.
+    private static final long SEARCH_DELAY_MS = 300;
+    private static final int SEARCH_LIMIT = 100;
+    private static final String ARG_SEARCH_TERM = "search_term";
+
+    private static final int REQUEST_IMPORT = 1;
+
+    // Number of pets loaded per page, and how close to the end of the list the user can scroll
+    // before the next page is requested.
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
 
-    private PetDbHelper mDbHelper;
+    // Bundle keys for the key of the last pet of the previous page.
+    private static final String ARG_AFTER_NAME = "after_name";
+    private static final String ARG_AFTER_ID = "after_id";
+
+    // Loaded pages, keyed by page number. Page n is loaded by loader CURSOR_LOADER + n.
+    private final SparseArray<Cursor> mPages = new SparseArray<>();
+    // Number of pages that have been requested so far.
+    private int mPageCount = 1;
 
     private PetCursorAdapter mCursorAdapter;
 
+    private PetWriter mPetWriter;
+
+    // The search whose results are on screen or loading, or null while showing every pet.
+    private String mSearchTerm;
+    // Only searches once typing pauses, so a burst of keystrokes runs one query.
+    private final SearchDebouncer mSearchDebouncer = new SearchDebouncer(SEARCH_DELAY_MS,
+            new SearchDebouncer.Listener() {
+                @Override
+                public void onSearch(String text) {
+                    search(text);
+                }
+            });
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // In debug builds, log any database or other disk access that slips onto the main thread.
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
-        mDbHelper = new PetDbHelper(this);
+        mPetWriter = new PetWriter(this);
 
-        mCursorAdapter = new PetCursorAdapter(this, null);
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
+            @Override
+            public void onPetClick(long id) {
+                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                intent.setData(Uri.withAppendedPath(PetEntry.CONTENT_URI, String.valueOf(id)));
+                startActivity(intent);
+            }
+        });
 
         LoaderManager loaderManager = getLoaderManager();
         loaderManager.initLoader(CURSOR_LOADER, null, this);
@@ -71,24 +129,51 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        //Create a reference to the ListView in activity_catalog.xml
-        ListView listView = (ListView) findViewById(R.id.catalog_listview);
-        //Set the CursorAdapter on the ListView
-        listView.setAdapter(mCursorAdapter);
-        //Find the empty view and set it to the listView object, if the adapter is empty this will be shown.
-        View emptyView = findViewById(R.id.empty_view);
-        //Set an empty view for when the adapter is empty
-        listView.setEmptyView(emptyView);
-        //Setup onItemClickListener on the listView
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Create a reference to the RecyclerView in activity_catalog.xml
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.catalog_list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        //Set the adapter on the RecyclerView
+        recyclerView.setAdapter(mCursorAdapter);
+        //Find the empty view, shown while the adapter is empty
+        final View emptyView = findViewById(R.id.empty_view);
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                intent.setData(Uri.withAppendedPath(PetEntry.CONTENT_URI, String.valueOf(id)));
-                startActivity(intent);
+            public void onChanged() {
+                updateEmptyView(emptyView);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView(emptyView);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView(emptyView);
             }
         });
+        //Load the next page once the user scrolls near the end of what has been loaded so far
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= mCursorAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchDebouncer.cancel();
+        super.onDestroy();
+    }
 
+    private void updateEmptyView(View emptyView) {
+        emptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -98,8 +183,6 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     private void insertPets() {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         ContentValues values = new ContentValues();
         values.put(PetEntry.COLUMN_PET_NAME, "Toto");
         values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
@@ -109,15 +192,41 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 //        long newRowId = db.insert(PetEntry.TABLE_NAME, null, values);
         /*PetProvider petProvider = new PetProvider();
         petProvider.insert(PetEntry.CONTENT_URI, values); */
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-        Log.i(LOG_TAG, "newUri: " + newUri);
+        mPetWriter.insert(PetEntry.CONTENT_URI, values, new PetWriter.Callback<Uri>() {
+            @Override
+            public void onSuccess(Uri newUri) {
+                Log.i(LOG_TAG, "newUri: " + newUri);
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                Log.e(LOG_TAG, "Error inserting dummy pet", e);
+            }
+        });
 //        displayDatabaseInfo();
         Log.i(LOG_TAG, "insertPets() value: " + values);
 
     }
 
     private void deletePets() {
-       getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
+        // The list empties straight away while the pets are purged a chunk at a time. If the
+        // purge fails part way, the pets it did not get to come back.
+        final PendingPetEdits pendingEdits = PendingPetEdits.get();
+        final PendingPetEdits.Edit edit = pendingEdits.deleteAll();
+        mPetWriter.delete(PetEntry.PURGE_URI, null, null, new PetWriter.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer rowsDeleted) {
+                pendingEdits.commit(edit);
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                pendingEdits.revert(edit);
+                Log.e(LOG_TAG, "Error deleting pets", e);
+                Toast.makeText(CatalogActivity.this, R.string.catalog_delete_all_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     @Override
@@ -125,9 +234,55 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(
+                menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchDebouncer.onTextChanged(newText);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mSearchDebouncer.submit(query);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the pets matching the given text, or every pet if it has no words to search for.
+     * Restarting the loader cancels a search that is still running, inside the provider's
+     * query where the platform supports it.
+     */
+    private void search(String text) {
+        String term = text == null ? "" : text.trim();
+        if (term.replaceAll("[^\\p{L}\\p{N}]+", "").isEmpty()) {
+            if (mSearchTerm != null) {
+                mSearchTerm = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showPages();
+            }
+            return;
+        }
+        if (term.equals(mSearchTerm)) {
+            return;
+        }
+        mSearchTerm = term;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_TERM, term);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
+    private static Uri searchUri(String term) {
+        return PetEntry.buildSearchUri(term).buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_PAGE_SIZE, String.valueOf(SEARCH_LIMIT))
+                .build();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -141,30 +296,185 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Do nothing for now
                 deletePets();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            new ImportTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Imports a CSV or JSON file of pets in the background and reports the totals in a toast.
+     * Only holds the application context, so it can outlive the activity. The catalog reloads
+     * through its loaders as each chunk is committed.
+     */
+    private static class ImportTask extends AsyncTask<Uri, Void, PetImporter.Result> {
+        private final Context mContext;
+
+        ImportTask(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected PetImporter.Result doInBackground(Uri... uris) {
+            PetImporter importer = new PetImporter(mContext.getContentResolver(),
+                    new PetImporter.Listener() {
+                        @Override
+                        public void onProgress(int rowsRead, int rowsImported, int rowsFailed) {
+                            Log.i(LOG_TAG, "Import: " + rowsImported + " of " + rowsRead
+                                    + " pets imported, " + rowsFailed + " rejected");
+                        }
+
+                        @Override
+                        public void onRowError(int record, String message) {
+                            Log.w(LOG_TAG, "Import: skipped record " + record + ": " + message);
+                        }
+                    });
+            try {
+                return importer.importFrom(uris[0]);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Error importing pets from " + uris[0], e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetImporter.Result result) {
+            if (result == null) {
+                Toast.makeText(mContext, R.string.catalog_import_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.catalog_import_finished,
+                        result.rowsImported, result.rowsFailed), Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Start loading the page after the last one, if the last page has finished loading and was
+     * full. A short page means we have reached the end of the table.
+     */
+    private void loadNextPage() {
+        // Search results come in a single page.
+        if (mSearchTerm != null) {
+            return;
+        }
+        Cursor lastPage = mPages.get(mPageCount - 1);
+        if (lastPage == null || lastPage.getCount() < PAGE_SIZE) {
+            return;
+        }
+        lastPage.moveToLast();
+        Bundle args = new Bundle();
+        args.putString(ARG_AFTER_NAME,
+                lastPage.getString(lastPage.getColumnIndex(PetEntry.COLUMN_PET_NAME)));
+        args.putLong(ARG_AFTER_ID, lastPage.getLong(lastPage.getColumnIndex(PetEntry._ID)));
+        getLoaderManager().initLoader(CURSOR_LOADER + mPageCount, args, this);
+        mPageCount++;
+    }
+
+    /**
+     * Drop every page after the given one. Used when a page reloads with a different last row,
+     * since the pages after it were keyed on the old one.
+     */
+    private void dropPagesAfter(int page) {
+        for (int i = mPageCount - 1; i > page; i--) {
+            getLoaderManager().destroyLoader(CURSOR_LOADER + i);
+            mPages.remove(i);
+        }
+        mPageCount = page + 1;
+    }
+
+    /**
+     * Show the loaded pages as a single list. Only the pages before the first gap are shown
+     * so the list never skips rows.
+     */
+    private void showPages() {
+        // The pages keep loading in the background, but search results take their place.
+        if (mSearchTerm != null) {
+            return;
+        }
+        int loaded = 0;
+        while (loaded < mPageCount && mPages.get(loaded) != null) {
+            loaded++;
+        }
+        if (loaded == 0) {
+            mCursorAdapter.swapCursor(null);
+            return;
+        }
+        Cursor[] cursors = new Cursor[loaded];
+        for (int i = 0; i < loaded; i++) {
+            cursors[i] = mPages.get(i);
+        }
+        // The pages carry the rows their loaders copied, and the adapter joins them off the
+        // main thread. The cursors themselves belong to their loaders.
+        mCursorAdapter.swapCursors(cursors);
+    }
+
+    private static long lastId(Cursor cursor) {
+        if (cursor == null || !cursor.moveToLast()) {
+            return -1;
+        }
+        return cursor.getLong(cursor.getColumnIndex(PetEntry._ID));
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_WEIGHT,
-                PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_BREED,
-                PetEntry.COLUMN_PET_NAME
-        };
+        // Only what the list shows, so the query is answered from the (name, _id, breed_id, photo)
+        // index and more rows fit in each cursor window.
+        String[] projection = PetEntry.SUMMARY_PROJECTION;
 
-        return new CursorLoader(this, PetEntry.CONTENT_URI, projection, null, null, null);
+        Uri uri;
+        if (id == SEARCH_LOADER) {
+            uri = searchUri(args.getString(ARG_SEARCH_TERM));
+        } else if (args == null) {
+            uri = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, PAGE_SIZE);
+        } else {
+            uri = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, PAGE_SIZE,
+                    args.getString(ARG_AFTER_NAME), args.getLong(ARG_AFTER_ID));
+        }
+        return new PetCursorAdapter.RowsLoader(this, uri, projection, null, null, null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mCursorAdapter.swapCursor(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            // Results for anything but the current term are stale and never shown.
+            if (mSearchTerm != null
+                    && searchUri(mSearchTerm).equals(((CursorLoader) loader).getUri())) {
+                mCursorAdapter.swapSearchResults(data);
+            }
+            return;
+        }
+        int page = loader.getId() - CURSOR_LOADER;
+        Cursor previous = mPages.get(page);
+        mPages.put(page, data);
+        // A reloaded page that now ends on a different pet invalidates the pages after it.
+        if (previous != null && lastId(previous) != lastId(data)) {
+            dropPagesAfter(page);
+        }
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            // The adapter keeps its own copy of the results.
+            return;
+        }
+        mPages.remove(loader.getId() - CURSOR_LOADER);
+        showPages();
     }
 }
@@ -16,12 +16,16 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.ActionBar;
@@ -36,10 +40,16 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCursor;
+import com.example.android.pets.data.PetWriter;
+
+import java.io.IOException;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -50,6 +60,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private static final int EDIT_PET_LOADER = 1;
 
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    // Saved instance state key for a photo picked but not saved yet.
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -75,11 +90,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private Long mRowId;
 
+    private PetWriter mPetWriter;
+
+    /** ImageView showing the pet's photo */
+    private ImageView mPhotoView;
+
+    private PetPhotoLoader mPhotoLoader;
+    private int mPhotoSize;
+    // The image the user picked, stored as the pet's photo when the pet is saved.
+    private Uri mPickedPhoto;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
 
+        mPetWriter = new PetWriter(this);
+
         //Get the Uri from the OnItemClicked intent object passed from CatalogActivity
         mUri = getIntent().getData();
         // If mUri isn't null log a statement containing it's value in a String.
@@ -109,6 +136,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoView = (ImageView) findViewById(R.id.image_pet_photo);
 
         // Set mTouchListener on fields
         mNameEditText.setOnTouchListener(mTouchListener);
@@ -117,6 +145,43 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        mPhotoLoader = PetPhotoLoader.get(this);
+        mPhotoSize = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
+        findViewById(R.id.button_choose_photo).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_PICK_PHOTO);
+            }
+        });
+        if (savedInstanceState != null) {
+            mPickedPhoto = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if (mPickedPhoto != null) {
+                mPhotoLoader.loadPreview(mPickedPhoto, mPhotoSize, mPhotoView);
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhoto);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_PHOTO && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            mPickedPhoto = data.getData();
+            mPetHasChanged = true;
+            // Decoded small, in the background; the photo itself is only stored on save.
+            mPhotoLoader.loadPreview(mPickedPhoto, mPhotoSize, mPhotoView);
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
@@ -240,19 +305,104 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             values.put(PetEntry.COLUMN_PET_GENDER, mGender);
             values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+            // The write runs in the background and the editor closes straight away, while the
+            // list shows the edit until it is written, or takes it back if the write fails. The
+            // application context is used for the result, since this activity may be gone by then.
+            final Context appContext = getApplicationContext();
+            final Uri pickedPhoto = mPickedPhoto;
+            final PendingPetEdits pendingEdits = PendingPetEdits.get();
             if (mUri == null) {
                 //mUri is null meaning this is a new pet so we insert a new row.
-                getContentResolver().insert(PetEntry.CONTENT_URI, values);
+                final PendingPetEdits.Edit edit = pendingEdits.insert(nameString, breedString);
+                mPetWriter.insert(PetEntry.CONTENT_URI, values, new PetWriter.Callback<Uri>() {
+                    @Override
+                    public void onSuccess(Uri result) {
+                        pendingEdits.commit(edit);
+                        Toast.makeText(appContext, R.string.editor_insert_pet_successful,
+                                Toast.LENGTH_SHORT).show();
+                        // The photo needs the new pet's id, so it is stored once the pet is.
+                        if (pickedPhoto != null) {
+                            new SavePhotoTask(appContext, pickedPhoto, ContentUris.parseId(result))
+                                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException e) {
+                        pendingEdits.revert(edit);
+                        Log.e(LOG_TAG, "Error saving pet", e);
+                        Toast.makeText(appContext, R.string.editor_insert_pet_failed,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
             } else {
+                if (pickedPhoto != null) {
+                    new SavePhotoTask(appContext, pickedPhoto, ContentUris.parseId(mUri))
+                            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                }
                 // mUri is not null so this is an existing pet and we update it using mUri to find its
                 // location in the table.
-                int rowsAffected = getContentResolver().update(mUri, values, null, null);
+                final PendingPetEdits.Edit edit = pendingEdits.update(ContentUris.parseId(mUri),
+                        nameString, breedString);
+                mPetWriter.update(mUri, values, null, null, new PetWriter.Callback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer rowsAffected) {
+                        // No rows means the pet was deleted meanwhile, so there is nothing to show.
+                        if (rowsAffected > 0) {
+                            pendingEdits.commit(edit);
+                        } else {
+                            pendingEdits.revert(edit);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException e) {
+                        pendingEdits.revert(edit);
+                        Log.e(LOG_TAG, "Error updating pet", e);
+                        Toast.makeText(appContext, R.string.editor_update_pet_failed,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
         }
 
 //        mRowId = db.insert(PetEntry.TABLE_NAME, null, values);
     }
 
+    /**
+     * Scales a picked image down and stores it as a pet's photo, showing a toast if that fails.
+     * Only holds the application context, so it can outlive the editor.
+     */
+    private static class SavePhotoTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context mContext;
+        private final Uri mImage;
+        private final long mPetId;
+
+        SavePhotoTask(Context context, Uri image, long petId) {
+            mContext = context.getApplicationContext();
+            mImage = image;
+            mPetId = petId;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            try {
+                PetPhotoLoader.savePhoto(mContext.getContentResolver(), mImage, mPetId);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Error saving photo " + mImage + " for pet " + mPetId, e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean saved) {
+            if (!saved) {
+                Toast.makeText(mContext, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
     private void showDeleteConfirmationDialog() {
         // Create an AlertDialog.Builder and set the message, and click listeners
         // for the positive and negative buttons on the dialog.
@@ -281,12 +431,32 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     private void deletePet() {
-        int deletedPet = getContentResolver().delete(mUri, null, null);
-        if (deletedPet == 1) {
-            Toast.makeText(this, "Pet deleted.", Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, "Error deleting pet.", Toast.LENGTH_SHORT).show();
-        }
+        final Context appContext = getApplicationContext();
+        // The pet leaves the list straight away and comes back if the delete fails.
+        final PendingPetEdits pendingEdits = PendingPetEdits.get();
+        final PendingPetEdits.Edit edit = pendingEdits.delete(ContentUris.parseId(mUri));
+        mPetWriter.delete(mUri, null, null, new PetWriter.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer deletedPet) {
+                if (deletedPet == 1) {
+                    pendingEdits.commit(edit);
+                    Toast.makeText(appContext, R.string.editor_delete_pet_successful,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    pendingEdits.revert(edit);
+                    Toast.makeText(appContext, R.string.editor_delete_pet_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                pendingEdits.revert(edit);
+                Log.e(LOG_TAG, "Error deleting pet", e);
+                Toast.makeText(appContext, R.string.editor_delete_pet_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
         getLoaderManager().destroyLoader(EDIT_PET_LOADER);
     }
     /* Moved toast messages to PetProvider temporarily
@@ -371,7 +541,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetEntry.COLUMN_PET_WEIGHT,
                 PetEntry.COLUMN_PET_GENDER,
                 PetEntry.COLUMN_PET_BREED,
-                PetEntry.COLUMN_PET_NAME
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_PHOTO
         };
 
         return new CursorLoader(this, mUri, projection, null, null, null);
@@ -386,13 +557,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             cursorEmpty = true;
         }
         Log.i(LOG_TAG, "onLoadFinished cursor null? " + cursorEmpty);
-        // Move to the first row of the returned cursor object
-        data.moveToFirst();
+        // Move to the first row of the returned cursor object, the pet may have been deleted
+        if (cursorEmpty || !data.moveToFirst()) {
+            return;
+        }
         // Get values from appropriate columns
-        String name = data.getString(data.getColumnIndex(PetEntry.COLUMN_PET_NAME));
-        String breed = data.getString(data.getColumnIndex(PetEntry.COLUMN_PET_BREED));
-        int gender = data.getInt(data.getColumnIndex(PetEntry.COLUMN_PET_GENDER));
-        String weight = data.getString(data.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT));
+        Pet pet = new PetCursor(data).getPet();
+        String name = pet.getName();
+        String breed = pet.getBreed();
+        int gender = pet.getGender();
+        String weight = String.valueOf(pet.getWeight());
         // Set values on our activity fields
         mNameEditText.setText(name);
         mBreedEditText.setText(breed);
@@ -409,6 +583,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 break;
         }
         mWeightEditText.setText(weight);
+        // A photo the user has just picked stays on screen until it is saved.
+        if (mPickedPhoto == null) {
+            mPhotoLoader.load(pet.getId(), pet.getPhoto(), mPhotoSize, mPhotoView);
+        }
         Log.i(LOG_TAG, "Loader data name: " + name);
     }
 
@@ -0,0 +1,139 @@
+package com.example.android.pets;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Edits the pets list shows before the database has them. The editor closes as soon as the
+ * user saves or deletes while {@link com.example.android.pets.data.PetWriter} writes in the
+ * background, so without these the list would show the old pet until the write commits and
+ * the loaders reload.
+ * <p>
+ * An edit is added before its write starts. If the write fails it is reverted, which puts the
+ * list back as it was. If it succeeds it is committed, and dropped once the list shows rows
+ * whose load started after the commit, since those already include it. Only used on the main
+ * thread.
+ */
+final class PendingPetEdits {
+
+    /**
+     * Told when an edit is added or reverted.
+     */
+    interface Listener {
+        void onPendingEditsChanged();
+    }
+
+    static final int KIND_INSERT = 0;
+    static final int KIND_UPDATE = 1;
+    static final int KIND_DELETE = 2;
+    static final int KIND_DELETE_ALL = 3;
+
+    /**
+     * One pending write. Inserted pets have a temporary negative id until the list reloads.
+     */
+    static final class Edit {
+        final int kind;
+        final long id;
+        final String name;
+        final String breed;
+        // Uptime at which the write committed, or NOT_COMMITTED while it is still running.
+        private long mCommittedAt = NOT_COMMITTED;
+
+        Edit(int kind, long id, String name, String breed) {
+            this.kind = kind;
+            this.id = id;
+            this.name = name;
+            this.breed = breed;
+        }
+    }
+
+    private static final long NOT_COMMITTED = Long.MAX_VALUE;
+
+    private static PendingPetEdits sInstance;
+
+    private final List<Edit> mEdits = new ArrayList<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private long mNextTemporaryId = -1;
+
+    static PendingPetEdits get() {
+        if (sInstance == null) {
+            sInstance = new PendingPetEdits();
+        }
+        return sInstance;
+    }
+
+    Edit insert(String name, String breed) {
+        return add(new Edit(KIND_INSERT, mNextTemporaryId--, name, breed));
+    }
+
+    Edit update(long id, String name, String breed) {
+        return add(new Edit(KIND_UPDATE, id, name, breed));
+    }
+
+    Edit delete(long id) {
+        return add(new Edit(KIND_DELETE, id, null, null));
+    }
+
+    /**
+     * Every pet the list shows is going. Pets inserted after this edit still show.
+     */
+    Edit deleteAll() {
+        return add(new Edit(KIND_DELETE_ALL, 0, null, null));
+    }
+
+    /**
+     * The write behind the edit went through. The edit stays until the list has reloaded.
+     */
+    void commit(Edit edit) {
+        edit.mCommittedAt = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * The write behind the edit failed, so stop showing it.
+     */
+    void revert(Edit edit) {
+        if (mEdits.remove(edit)) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Drop the committed edits that rows loaded from the given uptime on already include.
+     */
+    void prune(long loadedAt) {
+        for (int i = mEdits.size() - 1; i >= 0; i--) {
+            if (mEdits.get(i).mCommittedAt < loadedAt) {
+                mEdits.remove(i);
+            }
+        }
+    }
+
+    /**
+     * The edits in the order they were made, safe to hand to another thread.
+     */
+    List<Edit> snapshot() {
+        return new ArrayList<>(mEdits);
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private Edit add(Edit edit) {
+        mEdits.add(edit);
+        notifyListeners();
+        return edit;
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onPendingEditsChanged();
+        }
+    }
+}
@@ -1,45 +1,463 @@
 package com.example.android.pets;
 
 import android.content.Context;
+import android.content.CursorLoader;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCursor;
+import com.example.android.pets.data.StartupTrace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 /**
  * Created by Simon Aust on 21/08/2017.
+ *
+ * RecyclerView adapter for the pets list. Each new cursor is copied into a small snapshot of
+ * ids, names, breeds and photo names, and the difference from the rows on screen is worked out
+ * on a background thread so only the rows that actually changed are rebound. Cursors loaded
+ * by a {@link RowsLoader} are copied on the loader's thread, so the main thread never walks
+ * them. Edits that are still being written are shown on top of the loaded rows, see
+ * {@link PendingPetEdits}. Photos are loaded through {@link PetPhotoLoader}.
  */
 
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.PetViewHolder>
+        implements PendingPetEdits.Listener {
+
+    /**
+     * Called when the user taps a pet in the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    // A single thread, so diffs are worked out in the order the cursors arrived.
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final String mUnknownBreed;
+    private final OnPetClickListener mListener;
+    private final PetPhotoLoader mPhotoLoader;
+    private final int mPhotoSize;
+
+    // The rows currently shown. Only replaced on the main thread.
+    private Rows mRows = Rows.EMPTY;
+    // The rows last passed in, before pending edits are applied, and whether pets being
+    // inserted belong among them.
+    private Rows[] mPages = new Rows[0];
+    private boolean mShowInserts = true;
+    // Bumped on every swap, so a diff finished after a newer cursor arrived is dropped.
+    private int mGeneration;
+    private boolean mBoundFirstRow;
+
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mListener = listener;
+        mPhotoLoader = PetPhotoLoader.get(context);
+        mPhotoSize = context.getResources().getDimensionPixelSize(R.dimen.list_item_photo_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the rows of the given cursor, or no rows for null. See {@link #swapCursors}.
+     */
+    public void swapCursor(Cursor cursor) {
+        swapCursors(cursor == null ? new Cursor[0] : new Cursor[] { cursor });
+    }
+
+    /**
+     * Show search results. Pets still being inserted are left out, since they may not match.
+     */
+    public void swapSearchResults(Cursor cursor) {
+        swap(false, cursor);
+    }
+
+    /**
+     * Show the rows of the given cursors, one after the other. The cursors are read right away
+     * and not kept, so the caller may close them once this returns. Only cursors that did not
+     * come from a {@link RowsLoader} are read on the calling thread.
+     */
+    public void swapCursors(Cursor... cursors) {
+        swap(true, cursors);
+    }
 
-    public PetCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0);
+    private void swap(boolean showInserts, Cursor... cursors) {
+        Rows[] pages = new Rows[cursors.length];
+        long loadedAt = cursors.length == 0 ? 0 : Long.MAX_VALUE;
+        for (int i = 0; i < cursors.length; i++) {
+            pages[i] = Rows.of(cursors[i]);
+            loadedAt = Math.min(loadedAt, pages[i].loadedAt);
+        }
+        mPages = pages;
+        mShowInserts = showInserts;
+        // Edits these rows already include would otherwise be applied twice.
+        PendingPetEdits.get().prune(loadedAt);
+        update();
     }
 
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public void onPendingEditsChanged() {
+        update();
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        //Find fields to populate inflated view
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView breedTextView = (TextView) view.findViewById(R.id.summary);
-        // Extract properties from cursor
-        String name = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME));
-        String breed = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED));
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        PendingPetEdits.get().addListener(this);
+        update();
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        PendingPetEdits.get().removeListener(this);
+    }
+
+    /**
+     * Work out the rows to show from the last rows passed in and the pending edits, and show
+     * them once the difference from the rows on screen is known.
+     */
+    private void update() {
+        final Rows[] pages = mPages;
+        final boolean showInserts = mShowInserts;
+        final List<PendingPetEdits.Edit> edits = PendingPetEdits.get().snapshot();
+        final Rows oldRows = mRows;
+        final int generation = ++mGeneration;
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows newRows = Rows.concat(pages).apply(edits, showInserts);
+                // Nothing to diff against, so the new rows are shown as they are.
+                final DiffUtil.DiffResult diff = oldRows.size() == 0 || newRows.size() == 0
+                        ? null : DiffUtil.calculateDiff(new RowsDiff(oldRows, newRows));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRows = newRows;
+                        if (diff == null) {
+                            notifyDataSetChanged();
+                        } else {
+                            diff.dispatchUpdatesTo(PetCursorAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        holder.mId = mRows.ids[position];
+        holder.mNameTextView.setText(mRows.names[position]);
         // If breed is null or empty replace with "Unknown breed" string resource.
-        if (breed == null|| breed.isEmpty()) {
-            breed = context.getString(R.string.unknown_breed);
+        String breed = mRows.breeds[position];
+        holder.mBreedTextView.setText(TextUtils.isEmpty(breed) ? mUnknownBreed : breed);
+        mPhotoLoader.load(holder.mId, mRows.photos[position], mPhotoSize, holder.mPhotoView);
+        if (!mBoundFirstRow) {
+            mBoundFirstRow = true;
+            StartupTrace.mark(StartupTrace.FIRST_ROWS_BOUND);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.ids[position];
+    }
+
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView mNameTextView;
+        final TextView mBreedTextView;
+        final ImageView mPhotoView;
+        long mId;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            mNameTextView = (TextView) itemView.findViewById(R.id.name);
+            mBreedTextView = (TextView) itemView.findViewById(R.id.summary);
+            mPhotoView = (ImageView) itemView.findViewById(R.id.photo);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (mListener != null) {
+                mListener.onPetClick(mId);
+            }
+        }
+    }
+
+    /**
+     * A CursorLoader that also copies the rows the list shows while it is still on the loader's
+     * thread. Give its cursors to {@link #swapCursors} as they are.
+     */
+    public static class RowsLoader extends CursorLoader {
+
+        public RowsLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+            super(context, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            // Taken before the query, so the rows include every write committed before it.
+            long loadedAt = SystemClock.uptimeMillis();
+            Cursor cursor = super.loadInBackground();
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return new RowsCursor(cursor, Rows.from(cursor, loadedAt));
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A loaded cursor together with the rows copied out of it.
+     */
+    private static class RowsCursor extends CursorWrapper {
+        final Rows mRows;
+
+        RowsCursor(Cursor cursor, Rows rows) {
+            super(cursor);
+            mRows = rows;
+        }
+    }
+
+    /**
+     * The fields the list shows, copied out of a cursor. {@link PetCursor} looks the column
+     * indices up once per cursor rather than once per row.
+     */
+    private static class Rows {
+        static final Rows EMPTY = new Rows(0, 0);
+
+        final long[] ids;
+        final String[] names;
+        final String[] breeds;
+        final String[] photos;
+        // Uptime at which the query for these rows started.
+        final long loadedAt;
+
+        Rows(int size, long loadedAt) {
+            ids = new long[size];
+            names = new String[size];
+            breeds = new String[size];
+            photos = new String[size];
+            this.loadedAt = loadedAt;
+        }
+
+        static Rows from(Cursor cursor, long loadedAt) {
+            if (cursor == null) {
+                return EMPTY;
+            }
+            PetCursor pets = new PetCursor(cursor);
+            Rows rows = new Rows(pets.getCount(), loadedAt);
+            pets.moveToPosition(-1);
+            for (int i = 0; pets.moveToNext(); i++) {
+                rows.ids[i] = pets.getPetId();
+                rows.names[i] = pets.getName();
+                rows.breeds[i] = pets.getBreed();
+                rows.photos[i] = pets.getPhoto();
+            }
+            return rows;
+        }
+
+        /**
+         * The rows of the given cursor, copied when it was loaded if it came from a
+         * {@link RowsLoader}.
+         */
+        static Rows of(Cursor cursor) {
+            if (cursor instanceof RowsCursor) {
+                return ((RowsCursor) cursor).mRows;
+            }
+            return from(cursor, SystemClock.uptimeMillis());
+        }
+
+        /**
+         * The given pages joined in order into one list.
+         */
+        static Rows concat(Rows[] pages) {
+            if (pages.length == 1) {
+                return pages[0];
+            }
+            int size = 0;
+            for (Rows page : pages) {
+                size += page.size();
+            }
+            long loadedAt = pages.length == 0 ? 0 : Long.MAX_VALUE;
+            for (Rows page : pages) {
+                loadedAt = Math.min(loadedAt, page.loadedAt);
+            }
+            Rows rows = new Rows(size, loadedAt);
+            int start = 0;
+            for (Rows page : pages) {
+                System.arraycopy(page.ids, 0, rows.ids, start, page.size());
+                System.arraycopy(page.names, 0, rows.names, start, page.size());
+                System.arraycopy(page.breeds, 0, rows.breeds, start, page.size());
+                System.arraycopy(page.photos, 0, rows.photos, start, page.size());
+                start += page.size();
+            }
+            return rows;
+        }
+
+        /**
+         * These rows with the given edits applied in order. Updated pets keep their place,
+         * and inserted pets go where their name sorts.
+         */
+        Rows apply(List<PendingPetEdits.Edit> edits, boolean showInserts) {
+            if (edits.isEmpty()) {
+                return this;
+            }
+            List<Integer> rows = new ArrayList<>(size());
+            for (int i = 0; i < size(); i++) {
+                rows.add(i);
+            }
+            // Rows past the end of this snapshot are the edits' own, at index size() + edit.
+            for (int e = 0; e < edits.size(); e++) {
+                PendingPetEdits.Edit edit = edits.get(e);
+                if (edit.kind == PendingPetEdits.KIND_INSERT) {
+                    if (showInserts) {
+                        int position = 0;
+                        while (position < rows.size()
+                                && compareNames(name(rows.get(position), edits), edit.name) <= 0) {
+                            position++;
+                        }
+                        rows.add(position, size() + e);
+                    }
+                    continue;
+                }
+                if (edit.kind == PendingPetEdits.KIND_DELETE_ALL) {
+                    rows.clear();
+                    continue;
+                }
+                for (int position = 0; position < rows.size(); position++) {
+                    if (id(rows.get(position), edits) != edit.id) {
+                        continue;
+                    }
+                    if (edit.kind == PendingPetEdits.KIND_DELETE) {
+                        rows.remove(position);
+                    } else {
+                        rows.set(position, size() + e);
+                    }
+                    break;
+                }
+            }
+
+            Rows result = new Rows(rows.size(), loadedAt);
+            for (int position = 0; position < rows.size(); position++) {
+                int row = rows.get(position);
+                if (row < size()) {
+                    result.ids[position] = ids[row];
+                    result.names[position] = names[row];
+                    result.breeds[position] = breeds[row];
+                    result.photos[position] = photos[row];
+                } else {
+                    PendingPetEdits.Edit edit = edits.get(row - size());
+                    result.ids[position] = edit.id;
+                    result.names[position] = edit.name;
+                    result.breeds[position] = edit.breed;
+                    // An update keeps the photo it had. Photos are saved separately.
+                    result.photos[position] = photoFor(edit.id);
+                }
+            }
+            return result;
+        }
+
+        private long id(int row, List<PendingPetEdits.Edit> edits) {
+            return row < size() ? ids[row] : edits.get(row - size()).id;
+        }
+
+        private String name(int row, List<PendingPetEdits.Edit> edits) {
+            return row < size() ? names[row] : edits.get(row - size()).name;
+        }
+
+        private String photoFor(long id) {
+            for (int i = 0; i < size(); i++) {
+                if (ids[i] == id) {
+                    return photos[i];
+                }
+            }
+            return null;
+        }
+
+        // The list is in name order by SQLite's default BINARY collation, which for the
+        // names people type matches String.compareTo.
+        private static int compareNames(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return a.compareTo(b);
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
+
+    /**
+     * Pets are the same item when they have the same _id, and unchanged when the name, breed
+     * and photo shown for them are also the same.
+     */
+    private static class RowsDiff extends DiffUtil.Callback {
+        private final Rows mOld;
+        private final Rows mNew;
+
+        RowsDiff(Rows oldRows, Rows newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.ids[oldPosition] == mNew.ids[newPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return TextUtils.equals(mOld.names[oldPosition], mNew.names[newPosition])
+                    && TextUtils.equals(mOld.breeds[oldPosition], mNew.breeds[newPosition])
+                    && TextUtils.equals(mOld.photos[oldPosition], mNew.photos[newPosition]);
         }
-        // Populate views with extracted values
-        nameTextView.setText(name);
-        breedTextView.setText(breed);
     }
 }
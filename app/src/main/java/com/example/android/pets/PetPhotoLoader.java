@@ -0,0 +1,465 @@
+package com.example.android.pets;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.media.ExifInterface;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads square thumbnails of the pets' photos into ImageViews. Thumbnails come from, in order:
+ * <ol>
+ * <li>a memory cache of bitmaps, bounded by their size in bytes, checked on the main thread;</li>
+ * <li>a disk cache of thumbnails already scaled to the size asked for;</li>
+ * <li>the photo itself, decoded at a reduced sample size close to the thumbnail size and then
+ * scaled, so a full-size image is never held in memory.</li>
+ * </ol>
+ * Everything but the memory cache runs on a small pool of background threads. A view only
+ * shows the last thumbnail asked for it, and work for a view that has since been bound to
+ * another pet is dropped before it starts, so fast scrolling does not queue up decodes.
+ * <p>
+ * Photo file names change whenever a photo does, so the name and size make a key that never
+ * goes stale.
+ * <p>
+ * Picked images are turned upright from their EXIF orientation, for previews and when stored.
+ * Stored photos are written upright and without EXIF, so they are decoded as they are.
+ */
+public class PetPhotoLoader implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = PetPhotoLoader.class.getSimpleName();
+
+    // Share of the heap the memory cache may take.
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    // Photos are stored at most this many pixels on their longest edge.
+    private static final int MAX_PHOTO_SIZE = 1280;
+    private static final int PHOTO_QUALITY = 90;
+
+    private static final int DECODE_THREADS = 2;
+
+    private static PetPhotoLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final File mDiskCacheDirectory;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // The key each view was last asked to show. Read from the decode threads to drop stale work.
+    private final Map<ImageView, String> mTargets =
+            Collections.synchronizedMap(new WeakHashMap<ImageView, String>());
+    private final ExecutorService mExecutor;
+    // Bytes in the disk cache, counted on first use. Guarded by mDiskCacheDirectory.
+    private long mDiskCacheSize = -1;
+
+    private PetPhotoLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION,
+                Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        // Newest requests first: while scrolling, the rows just bound are the ones on screen.
+        mExecutor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                },
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, LOG_TAG);
+                    }
+                });
+    }
+
+    public static synchronized PetPhotoLoader get(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new PetPhotoLoader(appContext);
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show a size by size thumbnail of the given pet's photo, or nothing if it has none. Call
+     * on the main thread.
+     */
+    public void load(long petId, String photo, int size, ImageView view) {
+        if (photo == null) {
+            clear(view);
+            return;
+        }
+        load(thumbnailKey(size, photo), PetEntry.buildPhotoUri(petId), true, size, view);
+    }
+
+    /**
+     * The key of a size by size thumbnail of the photo with the given file name, in the memory
+     * cache and as the file name in the disk cache.
+     */
+    static String thumbnailKey(int size, String photo) {
+        return size + "_" + photo;
+    }
+
+    /**
+     * Show a thumbnail of any image, such as one just picked and not saved yet. It is only
+     * kept in the memory cache.
+     */
+    public void loadPreview(Uri image, int size, ImageView view) {
+        load(size + "_" + image, image, false, size, view);
+    }
+
+    /**
+     * Stop showing anything in the view, dropping any load still pending for it.
+     */
+    public void clear(ImageView view) {
+        mTargets.remove(view);
+        view.setImageDrawable(null);
+    }
+
+    private void load(final String key, final Uri source, final boolean diskCache, final int size,
+                      final ImageView view) {
+        mTargets.put(view, key);
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isWanted(view, key)) {
+                    return;
+                }
+                final Bitmap bitmap = loadThumbnail(key, source, diskCache, size);
+                if (bitmap == null) {
+                    return;
+                }
+                mMemoryCache.put(key, bitmap);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isWanted(view, key)) {
+                            view.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isWanted(ImageView view, String key) {
+        return key.equals(mTargets.get(view));
+    }
+
+    /**
+     * Read a thumbnail from the disk cache, or make one from the source. Returns null if the
+     * source cannot be read, for example because the pet's photo has just been replaced.
+     */
+    private Bitmap loadThumbnail(String key, Uri source, boolean diskCache, int size) {
+        File cacheFile = new File(mDiskCacheDirectory, key);
+        if (diskCache && cacheFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getPath());
+            if (bitmap != null) {
+                // Marks it recently used, for trimming.
+                cacheFile.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+        try {
+            Bitmap sampled = decodeSampled(mResolver, source, size, false);
+            if (!diskCache) {
+                sampled = orient(mResolver, source, sampled);
+            }
+            Bitmap thumbnail = ThumbnailUtils.extractThumbnail(sampled, size, size,
+                    ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+            if (diskCache) {
+                writeToDiskCache(cacheFile, thumbnail);
+            }
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Cannot load thumbnail of " + source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decode the image at the given uri at the largest power-of-two reduction that still leaves
+     * it at least minSize on its shorter edge, or, if fitLongEdge, on its longer edge. The
+     * bounds are read first without decoding any pixels.
+     */
+    private static Bitmap decodeSampled(ContentResolver resolver, Uri uri, int minSize,
+                                        boolean fitLongEdge) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+        int edge = fitLongEdge
+                ? Math.max(options.outWidth, options.outHeight)
+                : Math.min(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (edge / (sampleSize * 2) >= minSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Turn the decoded image upright, as its EXIF orientation says. Cameras often store photos
+     * as the sensor saw them and only record which way is up. Images without EXIF, or that
+     * cannot be read for it, are returned as they are.
+     */
+    private static Bitmap orient(ContentResolver resolver, Uri uri, Bitmap bitmap) {
+        int orientation;
+        try {
+            InputStream in = resolver.openInputStream(uri);
+            if (in == null) {
+                return bitmap;
+            }
+            try {
+                orientation = new ExifInterface(in).getAttributeInt(
+                        ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read the orientation of " + uri, e);
+            return bitmap;
+        }
+        Matrix matrix = orientationMatrix(orientation);
+        if (matrix == null) {
+            return bitmap;
+        }
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+
+    /**
+     * The transform that turns an image stored with the given EXIF orientation upright, or
+     * null if it already is.
+     */
+    static Matrix orientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                return matrix;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                return matrix;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                return matrix;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                return matrix;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                return matrix;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                return matrix;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                return matrix;
+            default:
+                return null;
+        }
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a thumbnail into the disk cache through a temporary file, so a reader never sees
+     * half of one, then trim the cache if it has grown past its limit.
+     */
+    private void writeToDiskCache(File cacheFile, Bitmap thumbnail) {
+        synchronized (mDiskCacheDirectory) {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                return;
+            }
+            File temp = new File(mDiskCacheDirectory, cacheFile.getName() + ".tmp");
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(cacheFile)) {
+                    temp.delete();
+                    return;
+                }
+            } catch (IOException e) {
+                temp.delete();
+                Log.w(LOG_TAG, "Cannot cache thumbnail " + cacheFile, e);
+                return;
+            }
+            if (mDiskCacheSize < 0) {
+                mDiskCacheSize = 0;
+                for (File file : listDiskCache()) {
+                    mDiskCacheSize += file.length();
+                }
+            } else {
+                mDiskCacheSize += cacheFile.length();
+            }
+            if (mDiskCacheSize > DISK_CACHE_BYTES) {
+                mDiskCacheSize = trim(listDiskCache(), mDiskCacheSize, DISK_CACHE_BYTES * 3 / 4);
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used of the given thumbnails, which take size bytes together,
+     * until they are down to target bytes, and return the bytes left. The disk cache is trimmed
+     * to three quarters of its limit, so it is not trimmed again on the very next write.
+     */
+    static long trim(File[] files, long size, long target) {
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= target) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+        return size;
+    }
+
+    private File[] listDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Store the image at the given uri as the photo of the given pet, scaled down to at most
+     * {@link #MAX_PHOTO_SIZE} pixels on its longest edge, turned upright and written as JPEG.
+     * Run it off the main thread.
+     */
+    public static void savePhoto(ContentResolver resolver, Uri image, long petId) throws IOException {
+        Bitmap bitmap = decodeSampled(resolver, image, MAX_PHOTO_SIZE, true);
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longEdge > MAX_PHOTO_SIZE) {
+            float scale = (float) MAX_PHOTO_SIZE / longEdge;
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+        // Written upright, since the JPEG written here carries no EXIF.
+        bitmap = orient(resolver, image, bitmap);
+        OutputStream out = resolver.openOutputStream(PetEntry.buildPhotoUri(petId), "w");
+        if (out == null) {
+            throw new IOException("Cannot open photo of pet " + petId);
+        }
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, out)) {
+                throw new IOException("Cannot encode photo of pet " + petId);
+            }
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Give the memory cache back once the app is in the background; the disk cache makes
+     * refilling it cheap.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.evictAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
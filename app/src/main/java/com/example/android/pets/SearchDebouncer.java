@@ -0,0 +1,55 @@
+package com.example.android.pets;
+
+import android.os.Handler;
+
+/**
+ * Holds back search-as-you-type until typing pauses, so a burst of keystrokes runs a single
+ * search for the last text rather than one per keystroke. Only used on the main thread.
+ */
+final class SearchDebouncer {
+
+    /**
+     * Told the text to search for once typing has paused, or straight away on submit.
+     */
+    interface Listener {
+        void onSearch(String text);
+    }
+
+    private final Handler mHandler = new Handler();
+    private final long mDelayMs;
+    private final Listener mListener;
+    // Text typed into the search box that has not been searched for yet.
+    private String mPendingText;
+    private final Runnable mSearch = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onSearch(mPendingText);
+        }
+    };
+
+    SearchDebouncer(long delayMs, Listener listener) {
+        mDelayMs = delayMs;
+        mListener = listener;
+    }
+
+    /**
+     * The text changed. Searches for it once it has stayed the same for the delay.
+     */
+    void onTextChanged(String text) {
+        mPendingText = text;
+        mHandler.removeCallbacks(mSearch);
+        mHandler.postDelayed(mSearch, mDelayMs);
+    }
+
+    /**
+     * Search for the text now, dropping the search still waiting for typing to pause.
+     */
+    void submit(String text) {
+        cancel();
+        mListener.onSearch(text);
+    }
+
+    void cancel() {
+        mHandler.removeCallbacks(mSearch);
+    }
+}
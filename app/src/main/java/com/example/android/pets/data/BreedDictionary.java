@@ -0,0 +1,68 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns breed names into their ids in the breeds table, adding a breed the first time it is
+ * written. Ids already looked up are remembered, so a bulk insert of many pets of the same few
+ * breeds only goes to the database once per breed. Use one per write, inside its transaction,
+ * so nothing is remembered from a write that was rolled back.
+ */
+class BreedDictionary {
+
+    private static final String SQL_INSERT_BREED = "INSERT OR IGNORE INTO "
+            + PetDbHelper.BREEDS_TABLE_NAME + " (" + PetDbHelper.COLUMN_BREED_NAME + ") VALUES (?)";
+
+    private static final String SQL_SELECT_BREED_ID = "SELECT " + BaseColumns._ID + " FROM "
+            + PetDbHelper.BREEDS_TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_BREED_NAME + " = ?";
+
+    private final SQLiteDatabase mDatabase;
+    private final Map<String, Long> mIds = new HashMap<>();
+
+    BreedDictionary(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return the id of the given breed, adding it if it is new, or null for no breed.
+     */
+    Long intern(String breed) {
+        if (breed == null) {
+            return null;
+        }
+        Long id = mIds.get(breed);
+        if (id == null) {
+            mDatabase.execSQL(SQL_INSERT_BREED, new Object[] { breed });
+            id = DatabaseUtils.longForQuery(mDatabase, SQL_SELECT_BREED_ID, new String[] { breed });
+            mIds.put(breed, id);
+        }
+        return id;
+    }
+
+    /**
+     * Return values ready for the pets table: the same values with the breed replaced by its
+     * breed_id. Values without a breed are returned as they are.
+     */
+    ContentValues encode(ContentValues values) {
+        if (!values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues encoded = new ContentValues(values);
+        encoded.remove(PetEntry.COLUMN_PET_BREED);
+        Long id = intern(values.getAsString(PetEntry.COLUMN_PET_BREED));
+        if (id == null) {
+            encoded.putNull(PetDbHelper.COLUMN_PET_BREED_ID);
+        } else {
+            encoded.put(PetDbHelper.COLUMN_PET_BREED_ID, id);
+        }
+        return encoded;
+    }
+}
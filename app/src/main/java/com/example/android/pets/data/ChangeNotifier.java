@@ -0,0 +1,86 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Sends {@link PetProvider}'s change notifications. Changes are collected until none has come
+ * for a short window and then sent together, so a burst of writes reaches each observer as a
+ * single callback instead of one reload per write. A burst that never pauses is still flushed
+ * once the first of its changes has waited the maximum delay.
+ */
+class ChangeNotifier {
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMs;
+    private final long mMaxDelayMs;
+
+    // Uris changed since the last flush, and when the first of them changed. Guarded by this.
+    private final Set<Uri> mPending = new HashSet<>();
+    private long mFirstPendingAt;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver, long windowMs, long maxDelayMs) {
+        mResolver = resolver;
+        mHandler = new Handler(Looper.getMainLooper());
+        mWindowMs = windowMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Queue a notification for the given uri. Every change restarts the window, but never
+     * pushes the flush past the maximum delay after the first pending change.
+     */
+    void notifyChange(Uri uri) {
+        long now = SystemClock.uptimeMillis();
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                mFirstPendingAt = now;
+            }
+            mPending.add(uri);
+            long delay = Math.min(mWindowMs, mFirstPendingAt + mMaxDelayMs - now);
+            mHandler.removeCallbacks(mFlush);
+            mHandler.postDelayed(mFlush, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Queue notifications for every uri in the given set, such as the changes of one batch.
+     */
+    void notifyChanges(Set<Uri> uris) {
+        for (Uri uri : uris) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * Send what is pending. A single pet is notified on its own uri. Anything more is merged
+     * into one notification on the pets collection, which also reaches observers of single pets.
+     */
+    private void flush() {
+        Uri uri;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uri = mPending.size() == 1 ? mPending.iterator().next() : PetEntry.CONTENT_URI;
+            mPending.clear();
+        }
+        mResolver.notifyChange(uri, null);
+    }
+}
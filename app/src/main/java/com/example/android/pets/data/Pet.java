@@ -0,0 +1,102 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * A single pet as stored in the pets table. Instances are mutable so that a caller reading
+ * many rows through {@link PetCursor#readPet(Pet)} can reuse one instance instead of
+ * allocating one per row.
+ */
+public class Pet {
+
+    private long mId;
+    private String mName;
+    private String mBreed;
+    private int mGender = PetEntry.GENDER_UNKNOWN;
+    private int mWeight;
+    private String mPhoto;
+
+    public Pet() {
+    }
+
+    public Pet(String name, String breed, int gender, int weight) {
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public void setId(long id) {
+        mId = id;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setName(String name) {
+        mName = name;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public void setBreed(String breed) {
+        mBreed = breed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public void setGender(int gender) {
+        mGender = gender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    public void setWeight(int weight) {
+        mWeight = weight;
+    }
+
+    /**
+     * The file name of the pet's photo, or null if it has none. The name changes whenever the
+     * photo does, so it identifies the image; read the photo itself through
+     * {@link PetEntry#buildPhotoUri(long)}.
+     */
+    public String getPhoto() {
+        return mPhoto;
+    }
+
+    public void setPhoto(String photo) {
+        mPhoto = photo;
+    }
+
+    /**
+     * The values to insert or update this pet with. The id is left out, since it is given by
+     * the uri, and so is the photo, which is written through its own uri.
+     */
+    public ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, mName);
+        values.put(PetEntry.COLUMN_PET_BREED, mBreed);
+        values.put(PetEntry.COLUMN_PET_GENDER, mGender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, mWeight);
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "Pet{id=" + mId + ", name=" + mName + ", breed=" + mBreed
+                + ", gender=" + mGender + ", weight=" + mWeight + ", photo=" + mPhoto + "}";
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.pets.data;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+
+/**
+ * The latest state of one pet as exchanged with the sync server: either its values, each with
+ * the time in milliseconds it last changed, or a tombstone saying when it was deleted. In JSON:
+ * <pre>
+ * {"id": "3f2a...", "name": "Tom", "name_at": 1500000000000, "breed": "Tabby",
+ *  "breed_at": 1500000000000, "gender": 1, "gender_at": 1500000000000, "weight": 4,
+ *  "weight_at": 1500000000000}
+ * {"id": "9c1e...", "deleted": true, "deleted_at": 1500000000000}
+ * </pre>
+ */
+class PetChange {
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_DELETED = "deleted";
+    private static final String KEY_DELETED_AT = "deleted_at";
+
+    String syncId;
+    // The local sequence number of the change. Only used for pushing, never sent.
+    long seq;
+    boolean deleted;
+    long deletedAt;
+    String name;
+    long nameAt;
+    String breed;
+    long breedAt;
+    int gender = PetEntry.GENDER_UNKNOWN;
+    long genderAt;
+    int weight;
+    long weightAt;
+
+    void writeTo(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name(KEY_ID).value(syncId);
+        if (deleted) {
+            json.name(KEY_DELETED).value(true);
+            json.name(KEY_DELETED_AT).value(deletedAt);
+        } else {
+            json.name(PetEntry.COLUMN_PET_NAME).value(name);
+            json.name(changedAt(PetEntry.COLUMN_PET_NAME)).value(nameAt);
+            json.name(PetEntry.COLUMN_PET_BREED).value(breed);
+            json.name(changedAt(PetEntry.COLUMN_PET_BREED)).value(breedAt);
+            json.name(PetEntry.COLUMN_PET_GENDER).value(gender);
+            json.name(changedAt(PetEntry.COLUMN_PET_GENDER)).value(genderAt);
+            json.name(PetEntry.COLUMN_PET_WEIGHT).value(weight);
+            json.name(changedAt(PetEntry.COLUMN_PET_WEIGHT)).value(weightAt);
+        }
+        json.endObject();
+    }
+
+    /**
+     * Read one change object. Unknown keys are skipped, so the server can send more than this
+     * version of the app understands.
+     */
+    static PetChange readFrom(JsonReader json) throws IOException {
+        PetChange change = new PetChange();
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+            } else if (KEY_ID.equals(key)) {
+                change.syncId = json.nextString();
+            } else if (KEY_DELETED.equals(key)) {
+                change.deleted = json.nextBoolean();
+            } else if (KEY_DELETED_AT.equals(key)) {
+                change.deletedAt = json.nextLong();
+            } else if (PetEntry.COLUMN_PET_NAME.equals(key)) {
+                change.name = json.nextString();
+            } else if (changedAt(PetEntry.COLUMN_PET_NAME).equals(key)) {
+                change.nameAt = json.nextLong();
+            } else if (PetEntry.COLUMN_PET_BREED.equals(key)) {
+                change.breed = json.nextString();
+            } else if (changedAt(PetEntry.COLUMN_PET_BREED).equals(key)) {
+                change.breedAt = json.nextLong();
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(key)) {
+                change.gender = json.nextInt();
+            } else if (changedAt(PetEntry.COLUMN_PET_GENDER).equals(key)) {
+                change.genderAt = json.nextLong();
+            } else if (PetEntry.COLUMN_PET_WEIGHT.equals(key)) {
+                change.weight = json.nextInt();
+            } else if (changedAt(PetEntry.COLUMN_PET_WEIGHT).equals(key)) {
+                change.weightAt = json.nextLong();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (change.syncId == null || change.syncId.isEmpty()) {
+            throw new IOException("Change without an id");
+        }
+        return change;
+    }
+
+    /**
+     * The name of the column, in the change log and in JSON, holding when the given pets
+     * column last changed.
+     */
+    static String changedAt(String column) {
+        return column + PetDbHelper.CHANGED_AT_SUFFIX;
+    }
+}
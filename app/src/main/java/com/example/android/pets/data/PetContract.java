@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -13,6 +14,57 @@ public final class PetContract  {
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BACKUP = "backup";
+    public static final String PATH_PURGE = "purge";
+    public static final String PATH_PHOTO = "photo";
+
+    //Open for reading to stream a snapshot of the database, or for writing ("w") to restore one.
+    public static final Uri BACKUP_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BACKUP);
+    public static final String BACKUP_MIME_TYPE = "application/x-sqlite3";
+
+    //Methods the provider answers through ContentResolver.call()
+    public static final String METHOD_GET_ROW_CACHE_STATS = "get_row_cache_stats";
+    public static final String METHOD_GET_METRICS = "get_metrics";
+    //Returns the metrics as a JSON string under KEY_METRICS_JSON.
+    public static final String METHOD_GET_METRICS_JSON = "get_metrics_json";
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+    //Turns metrics on or off, the arg is "true" or "false".
+    public static final String METHOD_SET_METRICS_ENABLED = "set_metrics_enabled";
+    //Returns how far the last purge of PetEntry.PURGE_URI got, under the KEY_PURGE keys.
+    public static final String METHOD_GET_PURGE_PROGRESS = "get_purge_progress";
+    //Returns the startup timings recorded so far, keyed by the StartupTrace step names.
+    public static final String METHOD_GET_STARTUP_TRACE = "get_startup_trace";
+    //Syncs the pets with the shelter server whose endpoint url is the arg, returning the counts
+    //under the KEY_SYNC keys. Blocks on the network, so never call it on the main thread.
+    public static final String METHOD_SYNC = "sync";
+
+    //Keys of the Bundle returned for METHOD_GET_ROW_CACHE_STATS
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_SIZE = "size";
+    public static final String KEY_CACHE_MAX_SIZE = "max_size";
+
+    //Keys of the Bundle returned for METHOD_GET_METRICS. Besides KEY_METRICS_ENABLED it holds one
+    //Bundle per uri match and operation, keyed like "pets/query", with the keys below.
+    public static final String KEY_METRICS_ENABLED = "enabled";
+    public static final String KEY_METRICS_CALLS = "calls";
+    public static final String KEY_METRICS_ROWS = "rows";
+    public static final String KEY_METRICS_TOTAL_MICROS = "total_micros";
+    //long[] where index 0 counts calls under 1us and index i calls from 2^(i-1) to 2^i us.
+    public static final String KEY_METRICS_LATENCY_HISTOGRAM = "latency_histogram";
+    public static final String KEY_METRICS_JSON = "json";
+
+    //Keys of the Bundle returned for METHOD_GET_PURGE_PROGRESS
+    public static final String KEY_PURGE_DELETED = "deleted";
+    public static final String KEY_PURGE_TOTAL = "total";
+
+    //Keys of the Bundle returned for METHOD_SYNC. KEY_SYNC_ERROR is only there if the sync
+    //failed part way; the counts then say how far it got, and the next sync carries on.
+    public static final String KEY_SYNC_PUSHED = "pushed";
+    public static final String KEY_SYNC_PULLED = "pulled";
+    public static final String KEY_SYNC_ERROR = "error";
 
 
     //Prevent accidental instantiating of class with private default constructor.
@@ -22,6 +74,12 @@ public final class PetContract  {
     public static class PetEntry implements BaseColumns {
         //Constant Uri for our ContentProvider class, points to the database.
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+        /**
+         * Deleting through this uri removes the matching pets in small chunks, letting other
+         * work in between, and then gives the freed space back to the file system. Observers
+         * are notified after every chunk; see {@link PetContract#METHOD_GET_PURGE_PROGRESS}.
+         */
+        public static final Uri PURGE_URI = Uri.withAppendedPath(CONTENT_URI, PATH_PURGE);
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -43,12 +101,89 @@ public final class PetContract  {
         public static final String COLUMN_PET_GENDER = "gender";
         //Constant value for weight column.
         public static final String COLUMN_PET_WEIGHT = "weight";
+        //Name of the pet's photo file, or null. Read only; photos are written through
+        //buildPhotoUri(long), and the file name changes every time the photo does.
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * The MIME type of a pet's photo uri. Photos are stored as JPEG.
+         */
+        public static final String PHOTO_MIME_TYPE = "image/jpeg";
+
+        /**
+         * The columns the pets list shows. A list query with this projection is answered from
+         * the (name, _id, breed_id, photo) index and the small breeds table, without reading the
+         * pets table.
+         */
+        public static final String[] SUMMARY_PROJECTION = {
+                _ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED,
+                COLUMN_PET_PHOTO
+        };
 
         //Values for gender
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
         public static final int GENDER_UNKNOWN = 0;
 
+        //Query parameters for reading the pets list one page at a time. Pages are keyed on the
+        //last row of the previous page instead of an OFFSET, so every page is an indexed seek.
+        public static final String QUERY_PARAMETER_PAGE_SIZE = "page_size";
+        public static final String QUERY_PARAMETER_PAGE_ORDER = "page_order";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+        //Values for the page order parameter
+        public static final String PAGE_ORDER_ID = "id";
+        public static final String PAGE_ORDER_NAME = "name";
+
+        /**
+         * Build a uri for the first page of pets ordered by {@link #PAGE_ORDER_ID} or
+         * {@link #PAGE_ORDER_NAME}.
+         */
+        public static Uri buildPageUri(String pageOrder, int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_PAGE_ORDER, pageOrder)
+                    .appendQueryParameter(QUERY_PARAMETER_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Build a uri for the page of pets that follows the row with the given key. The name is
+         * only used when paging by {@link #PAGE_ORDER_NAME}.
+         */
+        public static Uri buildPageUri(String pageOrder, int pageSize, String afterName, long afterId) {
+            Uri.Builder builder = buildPageUri(pageOrder, pageSize).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            if (PAGE_ORDER_NAME.equals(pageOrder)) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build a uri that finds pets whose name or breed contains words starting with the
+         * words in the given search term, best matches first.
+         */
+        public static Uri buildSearchUri(String term) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(term)
+                    .build();
+        }
+
+        /**
+         * Build the uri of the photo of the pet with the given id. Open it for reading to get
+         * the photo, or for writing ("w") to replace it with a JPEG; the new photo is in place
+         * once the written file is closed. Only the file name is kept in the pets table.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
         public static boolean isValidGender(int gender){
             if (gender == GENDER_FEMALE||gender == GENDER_MALE||gender == GENDER_UNKNOWN) {
                 return true;
@@ -58,4 +193,241 @@ public final class PetContract  {
 
     }
 
+    /**
+     * A filter on the pets list, encoded as query parameters of a pets uri so callers never
+     * build selection strings. The provider turns every combination into one of a few fixed,
+     * parameterized statements that the database can answer from its indexes. Values that are
+     * not set do not filter. Only queries are filtered; an update or delete uri carrying a
+     * filter is rejected rather than applied to every pet.
+     * <pre>
+     * Uri uri = new PetFilter()
+     *         .genders(PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE)
+     *         .weightBetween(5, 20)
+     *         .breedPrefix("Terr")
+     *         .applyTo(PetEntry.CONTENT_URI);
+     * </pre>
+     */
+    public static class PetFilter {
+        //Query parameters the filter is encoded into, all starting with QUERY_PARAMETER_PREFIX
+        static final String QUERY_PARAMETER_PREFIX = "filter_";
+        public static final String QUERY_PARAMETER_GENDERS = "filter_genders";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "filter_min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "filter_max_weight";
+        public static final String QUERY_PARAMETER_BREED = "filter_breed";
+        public static final String QUERY_PARAMETER_BREED_PREFIX = "filter_breed_prefix";
+        public static final String QUERY_PARAMETER_NAME_PREFIX = "filter_name_prefix";
+
+        // Bit (1 << gender) is set for every gender that matches. 0 matches every gender.
+        private int mGenderMask;
+        private Integer mMinWeight;
+        private Integer mMaxWeight;
+        private String mBreed;
+        private boolean mBreedIsPrefix;
+        private String mNamePrefix;
+
+        /**
+         * Only match pets with one of the given genders.
+         */
+        public PetFilter genders(int... genders) {
+            int mask = 0;
+            for (int gender : genders) {
+                if (!PetEntry.isValidGender(gender)) {
+                    throw new IllegalArgumentException("Invalid gender " + gender);
+                }
+                mask |= 1 << gender;
+            }
+            mGenderMask = mask;
+            return this;
+        }
+
+        /**
+         * Only match pets weighing from min up to and including max kilograms.
+         */
+        public PetFilter weightBetween(int min, int max) {
+            mMinWeight = min;
+            mMaxWeight = max;
+            return this;
+        }
+
+        public PetFilter minWeight(int min) {
+            mMinWeight = min;
+            return this;
+        }
+
+        public PetFilter maxWeight(int max) {
+            mMaxWeight = max;
+            return this;
+        }
+
+        /**
+         * Only match pets of exactly this breed. Replaces any breed prefix.
+         */
+        public PetFilter breedEquals(String breed) {
+            mBreed = breed;
+            mBreedIsPrefix = false;
+            return this;
+        }
+
+        /**
+         * Only match pets whose breed starts with the given text, case sensitively so the
+         * breed index can be used. Replaces any exact breed.
+         */
+        public PetFilter breedPrefix(String prefix) {
+            mBreed = prefix;
+            mBreedIsPrefix = true;
+            return this;
+        }
+
+        /**
+         * Only match pets whose name starts with the given text, case sensitively so the
+         * name index can be used.
+         */
+        public PetFilter namePrefix(String prefix) {
+            mNamePrefix = prefix;
+            return this;
+        }
+
+        /**
+         * Return the given pets uri, for example a page uri, with this filter added to it.
+         */
+        public Uri applyTo(Uri uri) {
+            Uri.Builder builder = uri.buildUpon();
+            if (mGenderMask != 0) {
+                StringBuilder genders = new StringBuilder();
+                for (int gender = 0; gender < Integer.SIZE; gender++) {
+                    if ((mGenderMask & (1 << gender)) != 0) {
+                        genders.append(genders.length() > 0 ? "," : "").append(gender);
+                    }
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDERS, genders.toString());
+            }
+            if (mMinWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(mMinWeight));
+            }
+            if (mMaxWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(mMaxWeight));
+            }
+            if (mBreed != null) {
+                builder.appendQueryParameter(mBreedIsPrefix
+                        ? QUERY_PARAMETER_BREED_PREFIX : QUERY_PARAMETER_BREED, mBreed);
+            }
+            if (mNamePrefix != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_NAME_PREFIX, mNamePrefix);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Read the filter back out of a uri made by {@link #applyTo(Uri)}.
+         */
+        static PetFilter fromUri(Uri uri) {
+            PetFilter filter = new PetFilter();
+            try {
+                String genders = uri.getQueryParameter(QUERY_PARAMETER_GENDERS);
+                if (genders != null && !genders.isEmpty()) {
+                    String[] values = genders.split(",");
+                    int[] parsed = new int[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        parsed[i] = Integer.parseInt(values[i].trim());
+                    }
+                    filter.genders(parsed);
+                }
+                String minWeight = uri.getQueryParameter(QUERY_PARAMETER_MIN_WEIGHT);
+                if (minWeight != null) {
+                    filter.minWeight(Integer.parseInt(minWeight));
+                }
+                String maxWeight = uri.getQueryParameter(QUERY_PARAMETER_MAX_WEIGHT);
+                if (maxWeight != null) {
+                    filter.maxWeight(Integer.parseInt(maxWeight));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid filter in " + uri);
+            }
+            String breed = uri.getQueryParameter(QUERY_PARAMETER_BREED);
+            String breedPrefix = uri.getQueryParameter(QUERY_PARAMETER_BREED_PREFIX);
+            if (breed != null) {
+                filter.breedEquals(breed);
+            } else if (breedPrefix != null) {
+                filter.breedPrefix(breedPrefix);
+            }
+            filter.namePrefix(uri.getQueryParameter(QUERY_PARAMETER_NAME_PREFIX));
+            return filter;
+        }
+
+        /**
+         * Whether the uri carries any of the filter's query parameters, set or not.
+         */
+        static boolean isIn(Uri uri) {
+            for (String parameter : uri.getQueryParameterNames()) {
+                if (parameter.startsWith(QUERY_PARAMETER_PREFIX)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return mGenderMask == 0 && mMinWeight == null && mMaxWeight == null
+                    && mBreed == null && mNamePrefix == null;
+        }
+
+        int getGenderMask() {
+            return mGenderMask;
+        }
+
+        Integer getMinWeight() {
+            return mMinWeight;
+        }
+
+        Integer getMaxWeight() {
+            return mMaxWeight;
+        }
+
+        String getBreed() {
+            return mBreed;
+        }
+
+        boolean isBreedPrefix() {
+            return mBreedIsPrefix;
+        }
+
+        String getNamePrefix() {
+            return mNamePrefix;
+        }
+    }
+
+    /**
+     * Shelter statistics, read from summary tables the database keeps up to date on every
+     * write. Each row is one statistic: the counts per gender and per breed have a key, the
+     * weight statistics do not.
+     */
+    public static class PetStatsEntry implements BaseColumns {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of statistics.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        //Columns of the statistics cursor
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_STAT = "stat";
+        public static final String COLUMN_KEY = "key";
+        public static final String COLUMN_VALUE = "value";
+
+        //Values for the stat column
+        public static final String STAT_GENDER_COUNT = "gender_count";
+        public static final String STAT_BREED_COUNT = "breed_count";
+        public static final String STAT_WEIGHT_MIN = "weight_min";
+        public static final String STAT_WEIGHT_MAX = "weight_max";
+        public static final String STAT_WEIGHT_MEAN = "weight_mean";
+        public static final String STAT_WEIGHT_MEDIAN = "weight_p50";
+        public static final String STAT_WEIGHT_P90 = "weight_p90";
+        public static final String STAT_WEIGHT_P99 = "weight_p99";
+
+        //Query parameter for how many breeds the histogram returns, 10 by default. Must be
+        //positive.
+        public static final String QUERY_PARAMETER_TOP_BREEDS = "top_breeds";
+    }
+
 }
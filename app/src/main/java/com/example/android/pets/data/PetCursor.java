@@ -0,0 +1,76 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * A cursor over pets that looks up its column indices once, when it is wrapped, and reads
+ * fields as primitives. Columns missing from the projection read as null, 0 or
+ * {@link PetEntry#GENDER_UNKNOWN}.
+ */
+public class PetCursor extends CursorWrapper {
+
+    private final int mIdColumn;
+    private final int mNameColumn;
+    private final int mBreedColumn;
+    private final int mGenderColumn;
+    private final int mWeightColumn;
+    private final int mPhotoColumn;
+
+    public PetCursor(Cursor cursor) {
+        super(cursor);
+        mIdColumn = cursor.getColumnIndex(PetEntry._ID);
+        mNameColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+        mBreedColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        mGenderColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
+        mWeightColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+        mPhotoColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+    }
+
+    public long getPetId() {
+        return mIdColumn == -1 ? 0 : getLong(mIdColumn);
+    }
+
+    public String getName() {
+        return mNameColumn == -1 ? null : getString(mNameColumn);
+    }
+
+    public String getBreed() {
+        return mBreedColumn == -1 ? null : getString(mBreedColumn);
+    }
+
+    public int getGender() {
+        return mGenderColumn == -1 ? PetEntry.GENDER_UNKNOWN : getInt(mGenderColumn);
+    }
+
+    public int getWeight() {
+        return mWeightColumn == -1 ? 0 : getInt(mWeightColumn);
+    }
+
+    public String getPhoto() {
+        return mPhotoColumn == -1 ? null : getString(mPhotoColumn);
+    }
+
+    /**
+     * Copy the current row into the given pet and return it, so one instance can be reused
+     * for every row.
+     */
+    public Pet readPet(Pet pet) {
+        pet.setId(getPetId());
+        pet.setName(getName());
+        pet.setBreed(getBreed());
+        pet.setGender(getGender());
+        pet.setWeight(getWeight());
+        pet.setPhoto(getPhoto());
+        return pet;
+    }
+
+    /**
+     * Read the current row into a new pet.
+     */
+    public Pet getPet() {
+        return readPet(new Pet());
+    }
+}
@@ -1,33 +1,583 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.provider.BaseColumns;
+
 import com.example.android.pets.data.PetContract.PetEntry;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
 /**
  * Created by Simon Aust on 08/08/2017.
  */
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 10;
+
+    static final String DATABASE_NAME = "shelter.db";
+
+    // Full-text index over the name and breed of every pet. Its docid is the pet's _id.
+    static final String SEARCH_TABLE_NAME = "pets_search";
+
+    // Summary tables behind the statistics uri, kept up to date by triggers on the pets table.
+    // The weight table is a histogram with one bucket per kilogram.
+    static final String GENDER_STATS_TABLE_NAME = "pet_gender_stats";
+    static final String BREED_STATS_TABLE_NAME = "pet_breed_stats";
+    static final String WEIGHT_STATS_TABLE_NAME = "pet_weight_stats";
+    static final String COLUMN_STATS_COUNT = "count";
+
+    // Every distinct breed, stored once. The pets table refers to it by breed_id.
+    static final String BREEDS_TABLE_NAME = "breeds";
+    static final String COLUMN_BREED_NAME = "name";
+    static final String COLUMN_PET_BREED_ID = "breed_id";
+
+    // The pets table as callers see it, with the breed name joined back in. Reads go through
+    // here, writes go to the pets table with the breed replaced by its breed_id.
+    static final String PET_DETAILS_VIEW_NAME = "pet_details";
+
+    // Sync bookkeeping. Every pet has a sync_id that is the same on every device. The change
+    // log holds one row per pet ever seen, deleted ones included as tombstones, with the
+    // sequence number of its last local change and when each column last changed. Triggers on
+    // the pets table keep it up to date unless changes pulled from the server are being applied.
+    static final String COLUMN_PET_SYNC_ID = "sync_id";
+    static final String CHANGES_TABLE_NAME = "pet_changes";
+    static final String COLUMN_CHANGE_SEQ = "seq";
+    static final String COLUMN_CHANGE_DELETED = "deleted";
+    static final String COLUMN_CHANGE_DELETED_AT = "deleted_at";
+    // Suffix of the column holding when a pets column last changed, as in "name_at".
+    static final String CHANGED_AT_SUFFIX = "_at";
+    // A single row: whether pulled changes are being applied, the last pushed sequence number
+    // and the server's cursor for the next pull.
+    static final String SYNC_STATE_TABLE_NAME = "pet_sync_state";
+    static final String COLUMN_SYNC_APPLYING = "applying";
+    static final String COLUMN_SYNC_PUSHED_SEQ = "pushed_seq";
+    static final String COLUMN_SYNC_PULL_CURSOR = "pull_cursor";
+
+    // Pets rewritten per statement by migrations that touch every row.
+    static final int MIGRATION_CHUNK_ROWS = 5000;
 
-    private static final String DATABASE_NAME = "shelter.db";
+    // Free pages given back to the file system per incremental vacuum step.
+    private static final int VACUUM_STEP_PAGES = 256;
+    // Value of PRAGMA auto_vacuum in incremental mode.
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Every SQLite database file starts with this header string.
+    private static final byte[] SQLITE_MAGIC = "SQLite format 3\u0000".getBytes();
+
+    /**
+     * A single schema change that takes the database from {@code version - 1} to
+     * {@code version}. Migrations run in order inside the transaction that
+     * {@link SQLiteOpenHelper} opens for onCreate/onUpgrade, so a failed upgrade leaves the
+     * database at its old version.
+     */
+    private abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Every schema change since version 1, oldest first. New installs run these too, so a fresh
+     * database always matches an upgraded one. Add new steps to the end and bump
+     * DATABASE_VERSION; never edit a step that has shipped.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: indexes for listing by name, filtering by breed and filtering by
+            // gender and weight range.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_NAME_INDEX);
+                    db.execSQL(SQL_CREATE_BREED_INDEX);
+                    db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+                }
+            },
+            // Version 3: full-text search table over name and breed, kept in sync by triggers.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_SEARCH_TABLE);
+                    db.execSQL(SQL_FILL_SEARCH_TABLE);
+                    db.execSQL(SQL_CREATE_SEARCH_INSERT_TRIGGER);
+                    db.execSQL(SQL_CREATE_SEARCH_UPDATE_TRIGGER);
+                    db.execSQL(SQL_CREATE_SEARCH_DELETE_TRIGGER);
+                }
+            },
+            // Version 4: summary tables for the statistics uri, filled once from the existing
+            // rows and then maintained incrementally by triggers.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_GENDER_STATS_TABLE);
+                    db.execSQL(SQL_CREATE_BREED_STATS_TABLE);
+                    db.execSQL(SQL_CREATE_BREED_STATS_COUNT_INDEX);
+                    db.execSQL(SQL_CREATE_WEIGHT_STATS_TABLE);
+                    db.execSQL(SQL_FILL_GENDER_STATS_TABLE);
+                    db.execSQL(SQL_FILL_BREED_STATS_TABLE);
+                    db.execSQL(SQL_FILL_WEIGHT_STATS_TABLE);
+                    db.execSQL(SQL_CREATE_STATS_INSERT_TRIGGER);
+                    db.execSQL(SQL_CREATE_STATS_UPDATE_TRIGGER);
+                    db.execSQL(SQL_CREATE_STATS_DELETE_TRIGGER);
+                }
+            },
+            // Version 5: replace the name index with a (name, breed) index that covers the
+            // catalog's summary projection. The name index is a prefix of it, so it goes.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_NAME_BREED_INDEX);
+                    db.execSQL("DROP INDEX IF EXISTS pets_name_index;");
+                }
+            },
+            // Version 6: store each breed once in a breeds table and refer to it by id. The
+            // pets table is rebuilt without its breed column, and its indexes, search and
+            // statistics triggers are recreated against breed_id.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_BREEDS_TABLE);
+                    db.execSQL(SQL_FILL_BREEDS_TABLE);
+                    db.execSQL(SQL_CREATE_PETS_V6_TABLE);
+                    forEachChunk(db, SQL_FILL_PETS_V6_TABLE);
+                    // Carry the AUTOINCREMENT counter over, so ids of deleted pets are never
+                    // reused. Dropping the old table would otherwise drop its counter.
+                    db.execSQL("DELETE FROM sqlite_sequence WHERE name = 'pets_v6';");
+                    db.execSQL("UPDATE sqlite_sequence SET name = 'pets_v6' WHERE name = '"
+                            + PetEntry.TABLE_NAME + "';");
+                    // Also drops the old indexes and triggers.
+                    db.execSQL("DROP TABLE " + PetEntry.TABLE_NAME + ";");
+                    db.execSQL("ALTER TABLE pets_v6 RENAME TO " + PetEntry.TABLE_NAME + ";");
+                    db.execSQL(SQL_CREATE_NAME_BREED_ID_INDEX);
+                    db.execSQL(SQL_CREATE_BREED_ID_INDEX);
+                    db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+                    db.execSQL(SQL_CREATE_PET_DETAILS_VIEW);
+                    db.execSQL(SQL_CREATE_SEARCH_INSERT_TRIGGER_V6);
+                    db.execSQL(SQL_CREATE_SEARCH_UPDATE_TRIGGER_V6);
+                    db.execSQL(SQL_CREATE_SEARCH_DELETE_TRIGGER);
+                    db.execSQL(SQL_CREATE_STATS_INSERT_TRIGGER_V6);
+                    db.execSQL(SQL_CREATE_STATS_UPDATE_TRIGGER_V6);
+                    db.execSQL(SQL_CREATE_STATS_DELETE_TRIGGER_V6);
+                }
+            },
+            // Version 7: a photo column holding the name of the pet's photo file. The details
+            // view is recreated with it, and the summary index extended to keep covering the
+            // catalog's projection.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP VIEW " + PET_DETAILS_VIEW_NAME + ";");
+                    db.execSQL(SQL_ADD_PHOTO_COLUMN);
+                    db.execSQL(SQL_CREATE_PET_DETAILS_VIEW_V7);
+                    db.execSQL("DROP INDEX pets_name_breed_index;");
+                    db.execSQL(SQL_CREATE_NAME_BREED_PHOTO_INDEX);
+                }
+            },
+            // Version 8: sync ids for every pet, and the change log and sync state behind
+            // delta sync. Existing pets all start out as local changes waiting to be pushed.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_ADD_SYNC_ID_COLUMN);
+                    forEachChunk(db, "UPDATE " + PetEntry.TABLE_NAME + " SET " + COLUMN_PET_SYNC_ID
+                            + " = " + NEW_SYNC_ID + " WHERE " + PetEntry._ID + " > ? AND "
+                            + PetEntry._ID + " <= ?");
+                    db.execSQL(SQL_CREATE_SYNC_ID_INDEX);
+                    db.execSQL(SQL_CREATE_CHANGES_TABLE);
+                    db.execSQL(SQL_CREATE_CHANGES_SEQ_INDEX);
+                    db.execSQL(SQL_FILL_CHANGES_TABLE);
+                    db.execSQL(SQL_CREATE_SYNC_STATE_TABLE);
+                    db.execSQL("INSERT INTO " + SYNC_STATE_TABLE_NAME + " DEFAULT VALUES;");
+                    db.execSQL(SQL_CREATE_CHANGES_INSERT_TRIGGER);
+                    db.execSQL(SQL_CREATE_CHANGES_UPDATE_TRIGGER);
+                    db.execSQL(SQL_CREATE_CHANGES_DELETE_TRIGGER);
+                }
+            },
+            // Version 9: rebuild the search table with prefix indexes for terms of up to three
+            // characters, so search-as-you-type does not scan a whole range of terms for every
+            // short prefix. The triggers on the pets table find the new table by name.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    if (!supportsFtsPrefix(db)) {
+                        return;
+                    }
+                    db.execSQL("DROP TABLE " + SEARCH_TABLE_NAME + ";");
+                    db.execSQL(SQL_CREATE_SEARCH_TABLE_V9);
+                    db.execSQL(SQL_FILL_SEARCH_TABLE_V9);
+                }
+            },
+            // Version 10: put _id right after name in the summary index. Pages are ordered by
+            // (name, _id), and with breed_id in between SQLite had to sort each run of equal
+            // names in a temporary B-tree.
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP INDEX pets_name_breed_photo_index;");
+                    db.execSQL(SQL_CREATE_NAME_ID_BREED_PHOTO_INDEX);
+                }
+            }
+    };
+
+    private final Context mContext;
 
     public PetDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        // Write-ahead logging lets the CursorLoaders keep reading from their own connections
+        // while the provider is writing. The platform sizes the reader connection pool itself.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Ask for incremental auto-vacuum before anything else touches the database, so a new one
+     * is created with it. It can only be turned on before the first table exists; an existing
+     * database on full auto-vacuum, the platform default, switches over here as well, and one
+     * without auto-vacuum waits for {@link #convertToIncrementalVacuum()}. Not called below
+     * API 16, where onCreate asks instead.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!db.isReadOnly()) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // In WAL mode NORMAL only syncs at checkpoints and is still safe against corruption.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        StartupTrace.mark(StartupTrace.DATABASE_OPEN);
+    }
+
+    /**
+     * Switch a database created without auto-vacuum over to incremental auto-vacuum, which
+     * lets a purge shrink the file afterwards. That takes a VACUUM, which rewrites the whole
+     * file and holds off writers while it runs, so it is left for when the app is idle rather
+     * than done on open. Does nothing once the database has been converted.
+     */
+    void convertToIncrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (autoVacuum(db) == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        // Enough on its own when coming from full auto-vacuum.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        if (autoVacuum(db) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("VACUUM");
+        }
+    }
+
+    static long autoVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+    }
+
+    /**
+     * Give free pages back to the file system a few at a time, each step in its own short
+     * write, then truncate the write-ahead log so the file actually shrinks on disk.
+     */
+    void incrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            pragma("incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+            long remaining = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (remaining >= freePages) {
+                // Writers are filling pages as fast as they are freed; leave the rest.
+                break;
+            }
+            freePages = remaining;
+        }
+        checkpointTruncate();
+    }
+
+    /**
+     * Copy what is in the write-ahead log back into the database without waiting on readers
+     * or writers. Used after large batches so the log does not keep growing.
+     */
+    void checkpointPassive() {
+        checkpoint("PASSIVE");
+    }
+
+    /**
+     * Checkpoint everything and truncate the write-ahead log to zero bytes. This waits for
+     * readers, so only use it when the app is idle.
+     */
+    void checkpointTruncate() {
+        checkpoint("TRUNCATE");
+    }
+
+    private void checkpoint(String mode) {
+        pragma("wal_checkpoint(" + mode + ")");
+    }
+
+    /**
+     * Run a pragma that returns rows, which has to go through rawQuery rather than execSQL.
+     * Every row is read, since some pragmas do their work a row at a time.
+     */
+    private void pragma(String pragma) {
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write a consistent copy of the database to the given stream. The database file and its
+     * write-ahead log are copied side by side while the write lock is held, so no commit lands
+     * between the two and the log cannot be reset under the copy. Readers carry on as normal on
+     * their own connections; only writers wait, and only for the file copies. The copy is then
+     * opened on its own and switched out of WAL mode, which folds the committed log frames into
+     * it and ignores any left over from before the log was last reset, and that single file is
+     * what gets streamed. Nothing here depends on checkpoints, so readers holding old
+     * snapshots cannot make it fail.
+     */
+    void backupTo(FileOutputStream out) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        File snapshot = new File(db.getPath() + "-backup");
+        deleteDatabaseFiles(snapshot);
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                copy(new File(db.getPath()), snapshot);
+                File walFile = new File(db.getPath() + "-wal");
+                if (walFile.exists()) {
+                    copy(walFile, new File(snapshot.getPath() + "-wal"));
+                }
+            } finally {
+                db.endTransaction();
+            }
+            SQLiteDatabase backup = SQLiteDatabase.openDatabase(snapshot.getPath(), null,
+                    SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+            try {
+                String mode = DatabaseUtils.stringForQuery(backup, "PRAGMA journal_mode = DELETE", null);
+                if (!"delete".equalsIgnoreCase(mode)) {
+                    throw new IOException("Could not fold the log into the backup");
+                }
+            } finally {
+                backup.close();
+            }
+            copy(snapshot, out.getChannel());
+        } finally {
+            deleteDatabaseFiles(snapshot);
+        }
+    }
+
+    private static void copy(File file, File target) throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            copy(file, out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete a database file along with the log, shared memory and journal files next to it.
+     */
+    private static void deleteDatabaseFiles(File file) {
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        new File(file.getPath() + "-journal").delete();
+    }
+
+    /**
+     * Copy a file to a channel through transferTo(), which lets the kernel move the bytes
+     * without copying them through the Java heap.
+     */
+    private static void copy(File file, FileChannel target) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel source = in.getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a backup from the given stream into a file next to the database, and check it is a
+     * complete SQLite database of a version this app can open. Nothing is replaced yet; pass
+     * the returned file to {@link #installRestore(File)} to do that.
+     */
+    File receiveRestore(InputStream in) throws IOException {
+        File restoreFile = new File(mContext.getDatabasePath(DATABASE_NAME).getPath() + "-restore");
+        FileOutputStream out = new FileOutputStream(restoreFile);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            // The file is renamed over the database, so it has to be on disk first.
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        try {
+            checkBackup(restoreFile);
+        } catch (IOException e) {
+            restoreFile.delete();
+            throw e;
+        }
+        return restoreFile;
+    }
+
+    /**
+     * Check the header of a backup: the magic string, that the file is as long as the header
+     * says so it was not cut off in transit, and that its schema version is not newer than
+     * ours. Older versions are migrated when the database is next opened.
+     */
+    private static void checkBackup(File file) throws IOException {
+        byte[] header = new byte[100];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(header);
+        } catch (IOException e) {
+            throw new IOException("Backup is too short to be a database");
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < SQLITE_MAGIC.length; i++) {
+            if (header[i] != SQLITE_MAGIC[i]) {
+                throw new IOException("Backup is not a SQLite database");
+            }
+        }
+        // Page size at offset 16, where 1 stands for 65536. Page count at 28.
+        int pageSize = ((header[16] & 0xff) << 8) | (header[17] & 0xff);
+        if (pageSize == 1) {
+            pageSize = 65536;
+        }
+        long pageCount = readInt(header, 28) & 0xffffffffL;
+        if ((long) pageSize * pageCount != file.length()) {
+            throw new IOException("Backup is incomplete");
+        }
+        // PRAGMA user_version lives at offset 60.
+        int version = readInt(header, 60);
+        if (version < 1 || version > DATABASE_VERSION) {
+            throw new IOException("Backup has unsupported version " + version);
+        }
+    }
+
+    /**
+     * Whether FTS4 understands the prefix option, which came with SQLite 3.7.7. API 15 ships
+     * an older SQLite, where searches keep working without the prefix indexes.
+     */
+    private static boolean supportsFtsPrefix(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        int patch = version.length > 2 ? Integer.parseInt(version[2]) : 0;
+        return major > 3 || (major == 3 && (minor > 7 || (minor == 7 && patch >= 7)));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Replace the database with a file from {@link #receiveRestore(InputStream)}. Closing the
+     * helper checkpoints the old log, and the new file is then renamed over the database in one
+     * step, so a crash leaves either the old database or the new one. The next call to
+     * getWritableDatabase() opens the restored data and migrates it if needed.
+     * <p>
+     * The old log and shared memory files are deleted, so nothing else may have the database
+     * open. PetProvider makes sure of that by holding its database lock for writing around this.
+     */
+    synchronized void installRestore(File restoreFile) throws IOException {
+        File databaseFile = mContext.getDatabasePath(DATABASE_NAME);
+        close();
+        new File(databaseFile.getPath() + "-wal").delete();
+        new File(databaseFile.getPath() + "-shm").delete();
+        new File(databaseFile.getPath() + "-journal").delete();
+        if (!restoreFile.renameTo(databaseFile)) {
+            restoreFile.delete();
+            throw new IOException("Could not replace " + databaseFile);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
         db.execSQL(SQL_CREATE_ENTRIES);
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-//        db.execSQL(SQL_DELETE_ENTRIES);
-//        onCreate(db);
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the migrations that take the database from oldVersion to newVersion, in order.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                if (migration.version != version + 1) {
+                    throw new IllegalStateException("Missing migration to version " + (version + 1));
+                }
+                migration.migrate(db);
+                version = migration.version;
+            }
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration from version " + version + " to " + newVersion);
+        }
+    }
+
+    /**
+     * Run a statement that rewrites pets once per range of MIGRATION_CHUNK_ROWS _ids. It ends
+     * in {@code _id > ? AND _id <= ?}, which is bound to each range in turn, so each statement
+     * is a seek on the primary key that touches a bounded number of rows, and its statement
+     * journal and the cache pages it dirties stay small however many pets there are. The
+     * chunks still commit together, in the migration's transaction, so a failed upgrade
+     * leaves the database as it was.
+     */
+    private static void forEachChunk(SQLiteDatabase db, String sql) {
+        long minId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(" + PetEntry._ID
+                + ") - 1, 0) FROM " + PetEntry.TABLE_NAME, null);
+        long maxId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + PetEntry._ID
+                + "), 0) FROM " + PetEntry.TABLE_NAME, null);
+        for (long from = minId; from < maxId; from += MIGRATION_CHUNK_ROWS) {
+            db.execSQL(sql, new Object[] { from, Math.min(from + MIGRATION_CHUNK_ROWS, maxId) });
+        }
     }
 
     private static final String SQL_CREATE_ENTRIES =
@@ -42,4 +592,388 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + PetEntry.TABLE_NAME;
+
+    // The name index also serves (name, _id) ordering, since every index ends with the rowid.
+    private static final String SQL_CREATE_NAME_INDEX =
+            "CREATE INDEX IF NOT EXISTS pets_name_index ON "
+                    + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ");";
+
+    // Covers _id, name and breed, since every index ends with the rowid.
+    private static final String SQL_CREATE_NAME_BREED_INDEX =
+            "CREATE INDEX IF NOT EXISTS pets_name_breed_index ON "
+                    + PetEntry.TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + ");";
+
+    private static final String SQL_CREATE_BREED_INDEX =
+            "CREATE INDEX IF NOT EXISTS pets_breed_index ON "
+                    + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ");";
+
+    private static final String SQL_CREATE_GENDER_WEIGHT_INDEX =
+            "CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON "
+                    + PetEntry.TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_GENDER + ", "
+                    + PetEntry.COLUMN_PET_WEIGHT + ");";
+
+    // A plain FTS4 table rather than an external content one, which needs a newer SQLite than
+    // API 15 ships.
+    private static final String SQL_CREATE_SEARCH_TABLE =
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                    + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + ");";
+
+    private static final String SQL_FILL_SEARCH_TABLE =
+            "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") SELECT "
+                    + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                    + " FROM " + PetEntry.TABLE_NAME + ";";
+
+    private static final String SQL_CREATE_SEARCH_INSERT_TRIGGER =
+            "CREATE TRIGGER pets_search_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                    + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", new." + PetEntry.COLUMN_PET_BREED
+                    + "); END;";
+
+    private static final String SQL_CREATE_SEARCH_UPDATE_TRIGGER =
+            "CREATE TRIGGER pets_search_update AFTER UPDATE OF "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                    + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                    + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + " = new." + PetEntry.COLUMN_PET_BREED
+                    + " WHERE docid = old." + PetEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_SEARCH_DELETE_TRIGGER =
+            "CREATE TRIGGER pets_search_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = old." + PetEntry._ID + "; END;";
+
+    // Pets without a breed are counted under the empty string, since NULL never matches a key.
+    private static final String BREED_KEY = "IFNULL(%1$s." + PetEntry.COLUMN_PET_BREED + ", '')";
+
+    private static final String SQL_CREATE_GENDER_STATS_TABLE =
+            "CREATE TABLE " + GENDER_STATS_TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY,"
+                    + COLUMN_STATS_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_CREATE_BREED_STATS_TABLE =
+            "CREATE TABLE " + BREED_STATS_TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY NOT NULL,"
+                    + COLUMN_STATS_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+    // Lets the top breeds be read in count order without sorting the whole table.
+    private static final String SQL_CREATE_BREED_STATS_COUNT_INDEX =
+            "CREATE INDEX pet_breed_stats_count_index ON "
+                    + BREED_STATS_TABLE_NAME + " (" + COLUMN_STATS_COUNT + ");";
+
+    private static final String SQL_CREATE_WEIGHT_STATS_TABLE =
+            "CREATE TABLE " + WEIGHT_STATS_TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_WEIGHT + " INTEGER PRIMARY KEY,"
+                    + COLUMN_STATS_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_FILL_GENDER_STATS_TABLE =
+            "INSERT INTO " + GENDER_STATS_TABLE_NAME + " SELECT " + PetEntry.COLUMN_PET_GENDER
+                    + ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_GENDER + ";";
+
+    private static final String SQL_FILL_BREED_STATS_TABLE =
+            "INSERT INTO " + BREED_STATS_TABLE_NAME + " SELECT "
+                    + String.format(BREED_KEY, PetEntry.TABLE_NAME) + ", COUNT(*) FROM "
+                    + PetEntry.TABLE_NAME + " GROUP BY 1;";
+
+    private static final String SQL_FILL_WEIGHT_STATS_TABLE =
+            "INSERT INTO " + WEIGHT_STATS_TABLE_NAME + " SELECT " + PetEntry.COLUMN_PET_WEIGHT
+                    + ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_WEIGHT + ";";
+
+    private static final String SQL_CREATE_STATS_INSERT_TRIGGER =
+            "CREATE TRIGGER pets_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + addToStats("new", BREED_KEY) + "END;";
+
+    private static final String SQL_CREATE_STATS_UPDATE_TRIGGER =
+            "CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                    + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + removeFromStats("old", BREED_KEY) + addToStats("new", BREED_KEY) + "END;";
+
+    private static final String SQL_CREATE_STATS_DELETE_TRIGGER =
+            "CREATE TRIGGER pets_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + removeFromStats("old", BREED_KEY) + "END;";
+
+    private static final String SQL_CREATE_BREEDS_TABLE =
+            "CREATE TABLE " + BREEDS_TABLE_NAME + " ("
+                    + BaseColumns._ID + " INTEGER PRIMARY KEY,"
+                    + COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE);";
+
+    private static final String SQL_FILL_BREEDS_TABLE =
+            "INSERT INTO " + BREEDS_TABLE_NAME + " (" + COLUMN_BREED_NAME + ") SELECT DISTINCT "
+                    + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+                    + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL;";
+
+    // The pets table from version 6 on. A NULL breed_id is a pet without a breed.
+    private static final String SQL_CREATE_PETS_V6_TABLE =
+            "CREATE TABLE pets_v6 ("
+                    + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL,"
+                    + COLUMN_PET_BREED_ID + " INTEGER REFERENCES " + BREEDS_TABLE_NAME
+                    + " (" + BaseColumns._ID + "),"
+                    + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL,"
+                    + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_FILL_PETS_V6_TABLE =
+            "INSERT INTO pets_v6 (" + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                    + COLUMN_PET_BREED_ID + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                    + PetEntry.COLUMN_PET_WEIGHT + ") SELECT p." + PetEntry._ID + ", p."
+                    + PetEntry.COLUMN_PET_NAME + ", b." + BaseColumns._ID + ", p."
+                    + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                    + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BREEDS_TABLE_NAME
+                    + " b ON b." + COLUMN_BREED_NAME + " = p." + PetEntry.COLUMN_PET_BREED
+                    + " WHERE p." + PetEntry._ID + " > ? AND p." + PetEntry._ID + " <= ?";
+
+    // Covers _id, name and breed_id, so the catalog list only reads breed names from the small
+    // breeds table.
+    private static final String SQL_CREATE_NAME_BREED_ID_INDEX =
+            "CREATE INDEX pets_name_breed_index ON " + PetEntry.TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + ");";
+
+    private static final String SQL_CREATE_BREED_ID_INDEX =
+            "CREATE INDEX pets_breed_index ON " + PetEntry.TABLE_NAME
+                    + " (" + COLUMN_PET_BREED_ID + ");";
+
+    private static final String SQL_CREATE_PET_DETAILS_VIEW =
+            "CREATE VIEW " + PET_DETAILS_VIEW_NAME + " AS SELECT "
+                    + "p." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+                    + "p." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                    + "b." + COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED + ", "
+                    + "p." + COLUMN_PET_BREED_ID + " AS " + COLUMN_PET_BREED_ID + ", "
+                    + "p." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER + ", "
+                    + "p." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                    + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BREEDS_TABLE_NAME
+                    + " b ON b." + BaseColumns._ID + " = p." + COLUMN_PET_BREED_ID + ";";
+
+    private static final String SQL_ADD_PHOTO_COLUMN =
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PET_PHOTO + " TEXT;";
+
+    private static final String SQL_CREATE_PET_DETAILS_VIEW_V7 =
+            "CREATE VIEW " + PET_DETAILS_VIEW_NAME + " AS SELECT "
+                    + "p." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+                    + "p." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                    + "b." + COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED + ", "
+                    + "p." + COLUMN_PET_BREED_ID + " AS " + COLUMN_PET_BREED_ID + ", "
+                    + "p." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER + ", "
+                    + "p." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                    + "p." + PetEntry.COLUMN_PET_PHOTO + " AS " + PetEntry.COLUMN_PET_PHOTO
+                    + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BREEDS_TABLE_NAME
+                    + " b ON b." + BaseColumns._ID + " = p." + COLUMN_PET_BREED_ID + ";";
+
+    // Covers the summary projection: _id, name, breed_id and photo.
+    private static final String SQL_CREATE_NAME_BREED_PHOTO_INDEX =
+            "CREATE INDEX pets_name_breed_photo_index ON " + PetEntry.TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + ", "
+                    + PetEntry.COLUMN_PET_PHOTO + ");";
+
+    // Covers the summary projection in (name, _id) order, the order pages are read in, so a
+    // page is a seek followed by a LIMIT with no sort.
+    private static final String SQL_CREATE_NAME_ID_BREED_PHOTO_INDEX =
+            "CREATE INDEX pets_name_id_breed_photo_index ON " + PetEntry.TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                    + COLUMN_PET_BREED_ID + ", " + PetEntry.COLUMN_PET_PHOTO + ");";
+
+    // Prefix indexes let a "term*" query of up to three characters read a single index entry
+    // rather than merging every term in its range.
+    private static final String SQL_CREATE_SEARCH_TABLE_V9 =
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                    + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + ", prefix=\"1,2,3\");";
+
+    private static final String SQL_FILL_SEARCH_TABLE_V9 =
+            "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") SELECT "
+                    + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                    + " FROM " + PET_DETAILS_VIEW_NAME + ";";
+
+    // A random 128-bit id as 32 hex digits.
+    private static final String NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    // Milliseconds since the epoch, like System.currentTimeMillis().
+    private static final String NOW_MILLIS =
+            "CAST(ROUND((julianday('now') - 2440587.5) * 86400000) AS INTEGER)";
+
+    private static final String NEXT_CHANGE_SEQ = "(SELECT IFNULL(MAX(" + COLUMN_CHANGE_SEQ
+            + "), 0) + 1 FROM " + CHANGES_TABLE_NAME + ")";
+
+    // Change log triggers only record local changes, not ones pulled from the server.
+    private static final String NOT_APPLYING = "(SELECT " + COLUMN_SYNC_APPLYING + " FROM "
+            + SYNC_STATE_TABLE_NAME + ") = 0";
+
+    private static final String SQL_ADD_SYNC_ID_COLUMN =
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_PET_SYNC_ID + " TEXT;";
+
+    private static final String SQL_CREATE_SYNC_ID_INDEX =
+            "CREATE UNIQUE INDEX pets_sync_id_index ON " + PetEntry.TABLE_NAME
+                    + " (" + COLUMN_PET_SYNC_ID + ");";
+
+    private static final String SQL_CREATE_CHANGES_TABLE =
+            "CREATE TABLE " + CHANGES_TABLE_NAME + " ("
+                    + COLUMN_PET_SYNC_ID + " TEXT PRIMARY KEY NOT NULL,"
+                    + COLUMN_CHANGE_SEQ + " INTEGER NOT NULL,"
+                    + COLUMN_CHANGE_DELETED + " INTEGER NOT NULL DEFAULT 0,"
+                    + COLUMN_CHANGE_DELETED_AT + " INTEGER,"
+                    + PetEntry.COLUMN_PET_NAME + CHANGED_AT_SUFFIX + " INTEGER NOT NULL DEFAULT 0,"
+                    + PetEntry.COLUMN_PET_BREED + CHANGED_AT_SUFFIX + " INTEGER NOT NULL DEFAULT 0,"
+                    + PetEntry.COLUMN_PET_GENDER + CHANGED_AT_SUFFIX + " INTEGER NOT NULL DEFAULT 0,"
+                    + PetEntry.COLUMN_PET_WEIGHT + CHANGED_AT_SUFFIX + " INTEGER NOT NULL DEFAULT 0);";
+
+    // Lets a push read the changes after its last sequence number in order.
+    private static final String SQL_CREATE_CHANGES_SEQ_INDEX =
+            "CREATE INDEX pet_changes_seq_index ON " + CHANGES_TABLE_NAME
+                    + " (" + COLUMN_CHANGE_SEQ + ");";
+
+    private static final String SQL_FILL_CHANGES_TABLE =
+            "INSERT INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_PET_SYNC_ID + ", " + COLUMN_CHANGE_SEQ
+                    + ", " + changedAtColumns() + ") SELECT " + COLUMN_PET_SYNC_ID + ", "
+                    + PetEntry._ID + ", " + NOW_MILLIS + ", " + NOW_MILLIS + ", " + NOW_MILLIS
+                    + ", " + NOW_MILLIS + " FROM " + PetEntry.TABLE_NAME + ";";
+
+    private static final String SQL_CREATE_SYNC_STATE_TABLE =
+            "CREATE TABLE " + SYNC_STATE_TABLE_NAME + " ("
+                    + COLUMN_SYNC_APPLYING + " INTEGER NOT NULL DEFAULT 0,"
+                    + COLUMN_SYNC_PUSHED_SEQ + " INTEGER NOT NULL DEFAULT 0,"
+                    + COLUMN_SYNC_PULL_CURSOR + " TEXT);";
+
+    // New pets get a sync id, unless they came from the server with one, and a change log row.
+    // Setting the id does not fire the update trigger, which only watches the data columns.
+    private static final String SQL_CREATE_CHANGES_INSERT_TRIGGER =
+            "CREATE TRIGGER pet_changes_insert AFTER INSERT ON " + PetEntry.TABLE_NAME
+                    + " WHEN " + NOT_APPLYING + " BEGIN "
+                    + "UPDATE " + PetEntry.TABLE_NAME + " SET " + COLUMN_PET_SYNC_ID + " = "
+                    + NEW_SYNC_ID + " WHERE " + PetEntry._ID + " = new." + PetEntry._ID
+                    + " AND " + COLUMN_PET_SYNC_ID + " IS NULL; "
+                    + "INSERT INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_PET_SYNC_ID + ", "
+                    + COLUMN_CHANGE_SEQ + ", " + changedAtColumns() + ") SELECT " + COLUMN_PET_SYNC_ID
+                    + ", " + NEXT_CHANGE_SEQ + ", " + NOW_MILLIS + ", " + NOW_MILLIS + ", "
+                    + NOW_MILLIS + ", " + NOW_MILLIS + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + PetEntry._ID + " = new." + PetEntry._ID + "; END;";
+
+    // Only columns whose value actually changed get a new timestamp, so the server can merge
+    // concurrent edits of different columns of the same pet.
+    private static final String SQL_CREATE_CHANGES_UPDATE_TRIGGER =
+            "CREATE TRIGGER pet_changes_update AFTER UPDATE OF "
+                    + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + ", "
+                    + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + " ON " + PetEntry.TABLE_NAME + " WHEN " + NOT_APPLYING + " AND ("
+                    + changed(PetEntry.COLUMN_PET_NAME) + " OR " + changed(COLUMN_PET_BREED_ID)
+                    + " OR " + changed(PetEntry.COLUMN_PET_GENDER) + " OR "
+                    + changed(PetEntry.COLUMN_PET_WEIGHT) + ") BEGIN "
+                    + "UPDATE " + CHANGES_TABLE_NAME + " SET " + COLUMN_CHANGE_SEQ + " = " + NEXT_CHANGE_SEQ
+                    + ", " + touch(PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_NAME)
+                    + ", " + touch(PetEntry.COLUMN_PET_BREED, COLUMN_PET_BREED_ID)
+                    + ", " + touch(PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_GENDER)
+                    + ", " + touch(PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_WEIGHT)
+                    + " WHERE " + COLUMN_PET_SYNC_ID + " = new." + COLUMN_PET_SYNC_ID + "; END;";
+
+    // Deleted pets keep their change log row as a tombstone.
+    private static final String SQL_CREATE_CHANGES_DELETE_TRIGGER =
+            "CREATE TRIGGER pet_changes_delete AFTER DELETE ON " + PetEntry.TABLE_NAME
+                    + " WHEN " + NOT_APPLYING + " BEGIN "
+                    + "UPDATE " + CHANGES_TABLE_NAME + " SET " + COLUMN_CHANGE_SEQ + " = " + NEXT_CHANGE_SEQ
+                    + ", " + COLUMN_CHANGE_DELETED + " = 1, " + COLUMN_CHANGE_DELETED_AT + " = " + NOW_MILLIS
+                    + " WHERE " + COLUMN_PET_SYNC_ID + " = old." + COLUMN_PET_SYNC_ID + "; END;";
+
+    // The breed name of the given row ("new" or "old"), for triggers on the version 6 table.
+    private static final String BREED_NAME = "(SELECT " + COLUMN_BREED_NAME + " FROM "
+            + BREEDS_TABLE_NAME + " WHERE " + BaseColumns._ID + " = %1$s." + COLUMN_PET_BREED_ID + ")";
+
+    private static final String BREED_ID_KEY = "IFNULL(" + BREED_NAME + ", '')";
+
+    private static final String SQL_CREATE_SEARCH_INSERT_TRIGGER_V6 =
+            "CREATE TRIGGER pets_search_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                    + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", "
+                    + String.format(BREED_NAME, "new") + "); END;";
+
+    private static final String SQL_CREATE_SEARCH_UPDATE_TRIGGER_V6 =
+            "CREATE TRIGGER pets_search_update AFTER UPDATE OF "
+                    + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID
+                    + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + SEARCH_TABLE_NAME + " SET "
+                    + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + " = " + String.format(BREED_NAME, "new")
+                    + " WHERE docid = old." + PetEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_STATS_INSERT_TRIGGER_V6 =
+            "CREATE TRIGGER pets_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + addToStats("new", BREED_ID_KEY) + "END;";
+
+    private static final String SQL_CREATE_STATS_UPDATE_TRIGGER_V6 =
+            "CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                    + COLUMN_PET_BREED_ID + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + removeFromStats("old", BREED_ID_KEY) + addToStats("new", BREED_ID_KEY) + "END;";
+
+    private static final String SQL_CREATE_STATS_DELETE_TRIGGER_V6 =
+            "CREATE TRIGGER pets_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                    + removeFromStats("old", BREED_ID_KEY) + "END;";
+
+    private static String changedAtColumns() {
+        return PetEntry.COLUMN_PET_NAME + CHANGED_AT_SUFFIX + ", "
+                + PetEntry.COLUMN_PET_BREED + CHANGED_AT_SUFFIX + ", "
+                + PetEntry.COLUMN_PET_GENDER + CHANGED_AT_SUFFIX + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + CHANGED_AT_SUFFIX;
+    }
+
+    private static String changed(String column) {
+        return "new." + column + " IS NOT old." + column;
+    }
+
+    /**
+     * Set clause that stamps the change time of the given synced column when the pets column
+     * it is stored in has changed.
+     */
+    private static String touch(String column, String petsColumn) {
+        String changedAt = column + CHANGED_AT_SUFFIX;
+        return changedAt + " = CASE WHEN " + changed(petsColumn) + " THEN " + NOW_MILLIS
+                + " ELSE " + changedAt + " END";
+    }
+
+    /**
+     * Trigger statements that count the given row ("new" or "old") into every summary table.
+     * breedKey is a format for the row's key in the breed table, given the row.
+     */
+    private static String addToStats(String row, String breedKey) {
+        return addToStats(GENDER_STATS_TABLE_NAME, PetEntry.COLUMN_PET_GENDER,
+                row + "." + PetEntry.COLUMN_PET_GENDER)
+                + addToStats(BREED_STATS_TABLE_NAME, PetEntry.COLUMN_PET_BREED,
+                String.format(breedKey, row))
+                + addToStats(WEIGHT_STATS_TABLE_NAME, PetEntry.COLUMN_PET_WEIGHT,
+                row + "." + PetEntry.COLUMN_PET_WEIGHT);
+    }
+
+    private static String addToStats(String table, String keyColumn, String key) {
+        return "INSERT OR IGNORE INTO " + table + " (" + keyColumn + ") VALUES (" + key + "); "
+                + "UPDATE " + table + " SET " + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT
+                + " + 1 WHERE " + keyColumn + " = " + key + "; ";
+    }
+
+    /**
+     * Trigger statements that take the given row back out of every summary table. Empty breed
+     * and weight buckets are dropped so those tables stay as small as the set of live values.
+     */
+    private static String removeFromStats(String row, String breedKey) {
+        return removeFromStats(GENDER_STATS_TABLE_NAME, PetEntry.COLUMN_PET_GENDER,
+                row + "." + PetEntry.COLUMN_PET_GENDER, false)
+                + removeFromStats(BREED_STATS_TABLE_NAME, PetEntry.COLUMN_PET_BREED,
+                String.format(breedKey, row), true)
+                + removeFromStats(WEIGHT_STATS_TABLE_NAME, PetEntry.COLUMN_PET_WEIGHT,
+                row + "." + PetEntry.COLUMN_PET_WEIGHT, true);
+    }
+
+    private static String removeFromStats(String table, String keyColumn, String key, boolean dropEmpty) {
+        String sql = "UPDATE " + table + " SET " + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT
+                + " - 1 WHERE " + keyColumn + " = " + key + "; ";
+        if (dropEmpty) {
+            sql += "DELETE FROM " + table + " WHERE " + keyColumn + " = " + key
+                    + " AND " + COLUMN_STATS_COUNT + " <= 0; ";
+        }
+        return sql;
+    }
 }
@@ -0,0 +1,341 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports pets from a CSV or JSON export. The file is read through a fixed-size buffer and
+ * parsed one record at a time, and valid rows are written through
+ * {@link ContentResolver#bulkInsert} in chunks, each in its own transaction. Memory use depends
+ * on the chunk size, not on the size of the file.
+ * <p>
+ * CSV files start with a header row naming the name, breed, gender and weight columns, in any
+ * order. JSON files hold an array of objects with those keys. Gender can be given as its
+ * number or as "male", "female" or "unknown". Run it off the main thread.
+ */
+public class PetImporter {
+
+    /**
+     * Receives progress and errors while an import runs, on the importing thread.
+     */
+    public interface Listener {
+        /**
+         * Called after every committed chunk.
+         */
+        void onProgress(int rowsRead, int rowsImported, int rowsFailed);
+
+        /**
+         * A row was skipped. Record is 1 for the first record after any CSV header.
+         */
+        void onRowError(int record, String message);
+    }
+
+    /**
+     * The totals of a finished import.
+     */
+    public static class Result {
+        public final int rowsRead;
+        public final int rowsImported;
+        public final int rowsFailed;
+
+        Result(int rowsRead, int rowsImported, int rowsFailed) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsFailed = rowsFailed;
+        }
+    }
+
+    // Rows written per bulkInsert, and so per transaction.
+    private static final int CHUNK_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    private final List<ContentValues> mChunk = new ArrayList<>(CHUNK_SIZE);
+    private int mRowsRead;
+    private int mRowsImported;
+    private int mRowsFailed;
+
+    public PetImporter(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Import every pet in the file at the given uri. The format is worked out from the first
+     * character: a '[' means JSON, anything else CSV.
+     */
+    public Result importFrom(Uri uri) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_SIZE);
+        try {
+            if (firstCharacter(reader) == '[') {
+                importJson(reader);
+            } else {
+                importCsv(reader);
+            }
+            flush();
+        } finally {
+            reader.close();
+        }
+        return new Result(mRowsRead, mRowsImported, mRowsFailed);
+    }
+
+    private static int firstCharacter(BufferedReader reader) throws IOException {
+        int c;
+        do {
+            reader.mark(1);
+            c = reader.read();
+        } while (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF'));
+        reader.reset();
+        return c;
+    }
+
+    private void importCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            return;
+        }
+        int nameColumn = -1;
+        int breedColumn = -1;
+        int genderColumn = -1;
+        int weightColumn = -1;
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i).trim().toLowerCase(Locale.US);
+            if (PetEntry.COLUMN_PET_NAME.equals(column)) {
+                nameColumn = i;
+            } else if (PetEntry.COLUMN_PET_BREED.equals(column)) {
+                breedColumn = i;
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(column)) {
+                genderColumn = i;
+            } else if (PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+                weightColumn = i;
+            }
+        }
+        if (nameColumn == -1) {
+            throw new IOException("CSV header has no " + PetEntry.COLUMN_PET_NAME + " column");
+        }
+
+        List<String> record;
+        while ((record = csv.readRecord()) != null) {
+            if (record.size() == 1 && record.get(0).isEmpty()) {
+                // Blank line
+                continue;
+            }
+            mRowsRead++;
+            try {
+                ContentValues values = new ContentValues(4);
+                values.put(PetEntry.COLUMN_PET_NAME, field(record, nameColumn));
+                values.put(PetEntry.COLUMN_PET_BREED, field(record, breedColumn));
+                values.put(PetEntry.COLUMN_PET_GENDER, parseGender(field(record, genderColumn)));
+                values.put(PetEntry.COLUMN_PET_WEIGHT, parseWeight(field(record, weightColumn)));
+                add(values);
+            } catch (IllegalArgumentException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    private void importJson(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.beginArray();
+        while (json.hasNext()) {
+            mRowsRead++;
+            String name = null;
+            String breed = null;
+            String gender = null;
+            String weight = null;
+            String error = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                JsonToken token = json.peek();
+                if (token == JsonToken.NULL) {
+                    json.nextNull();
+                } else if (!isPetKey(key)) {
+                    json.skipValue();
+                } else if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                    // An array, object or boolean for a pet field fails this row only.
+                    json.skipValue();
+                    if (error == null) {
+                        error = "Invalid " + key + ", expected a string or number";
+                    }
+                } else if (PetEntry.COLUMN_PET_NAME.equals(key)) {
+                    name = json.nextString();
+                } else if (PetEntry.COLUMN_PET_BREED.equals(key)) {
+                    breed = json.nextString();
+                } else if (PetEntry.COLUMN_PET_GENDER.equals(key)) {
+                    gender = json.nextString();
+                } else {
+                    weight = json.nextString();
+                }
+            }
+            json.endObject();
+            if (error != null) {
+                fail(error);
+                continue;
+            }
+            try {
+                ContentValues values = new ContentValues(4);
+                values.put(PetEntry.COLUMN_PET_NAME, name);
+                values.put(PetEntry.COLUMN_PET_BREED, breed == null ? "" : breed);
+                values.put(PetEntry.COLUMN_PET_GENDER, parseGender(gender));
+                values.put(PetEntry.COLUMN_PET_WEIGHT, parseWeight(weight));
+                add(values);
+            } catch (IllegalArgumentException e) {
+                fail(e.getMessage());
+            }
+        }
+        json.endArray();
+    }
+
+    private static boolean isPetKey(String key) {
+        return PetEntry.COLUMN_PET_NAME.equals(key) || PetEntry.COLUMN_PET_BREED.equals(key)
+                || PetEntry.COLUMN_PET_GENDER.equals(key) || PetEntry.COLUMN_PET_WEIGHT.equals(key);
+    }
+
+    private static String field(List<String> record, int column) {
+        if (column == -1 || column >= record.size()) {
+            return "";
+        }
+        return record.get(column).trim();
+    }
+
+    private static int parseGender(String gender) {
+        if (gender == null || gender.isEmpty()) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        switch (gender.trim().toLowerCase(Locale.US)) {
+            case "male":
+                return PetEntry.GENDER_MALE;
+            case "female":
+                return PetEntry.GENDER_FEMALE;
+            case "unknown":
+                return PetEntry.GENDER_UNKNOWN;
+            default:
+                try {
+                    return Integer.parseInt(gender.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid gender " + gender);
+                }
+        }
+    }
+
+    private static int parseWeight(String weight) {
+        if (weight == null || weight.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(weight.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid weight " + weight);
+        }
+    }
+
+    /**
+     * Validate a row with the provider's own rules and queue it, writing the chunk when full.
+     */
+    private void add(ContentValues values) {
+        PetProvider.validatePet(values);
+        mChunk.add(values);
+        if (mChunk.size() == CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    private void fail(String message) {
+        mRowsFailed++;
+        mListener.onRowError(mRowsRead, message);
+    }
+
+    private void flush() {
+        if (!mChunk.isEmpty()) {
+            mRowsImported += mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                    mChunk.toArray(new ContentValues[mChunk.size()]));
+            mChunk.clear();
+        }
+        mListener.onProgress(mRowsRead, mRowsImported, mRowsFailed);
+    }
+
+    /**
+     * Reads RFC 4180 style CSV one record at a time. Fields may be quoted, with "" for a quote
+     * inside a quoted field, and quoted fields may span lines.
+     */
+    private static class CsvReader {
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private boolean mEnd;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Return the fields of the next record, or null at the end of the input.
+         */
+        List<String> readRecord() throws IOException {
+            if (mEnd) {
+                return null;
+            }
+            List<String> record = new ArrayList<>();
+            boolean quoted = false;
+            boolean any = false;
+            mField.setLength(0);
+            while (true) {
+                int c = mReader.read();
+                if (c == -1) {
+                    mEnd = true;
+                    if (!any) {
+                        return null;
+                    }
+                    record.add(mField.toString());
+                    return record;
+                }
+                any = true;
+                if (quoted) {
+                    if (c == '"') {
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            mField.append('"');
+                        } else {
+                            mReader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    record.add(mField.toString());
+                    return record;
+                } else if (c != '\r' && c != '\uFEFF') {
+                    mField.append((char) c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The directory the pets' photos are kept in, one file per photo. The pets table only holds a
+ * photo's file name. Every new photo gets a new name, so a name always stands for the same
+ * bytes and can be used as a cache key by readers.
+ */
+class PetPhotoStore {
+
+    private static final String PHOTO_SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Files younger than this are left alone by a sweep, since the row that is about to refer
+    // to them may not have been written yet.
+    private static final long SWEEP_GRACE_MS = 60 * 1000;
+
+    private final File mDirectory;
+
+    PetPhotoStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * The file of the photo with the given name. Names only ever come from {@link #write}, but
+     * anything that could step out of the directory is refused all the same.
+     */
+    File file(String name) throws IOException {
+        if (name == null || name.isEmpty() || name.indexOf(File.separatorChar) != -1
+                || name.startsWith(".")) {
+            throw new IOException("Invalid photo name " + name);
+        }
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Copy the given stream into a new photo file and return its name. The bytes go to a
+     * temporary file that is synced and then renamed, so a photo file is always complete.
+     */
+    String write(InputStream in) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        String name = UUID.randomUUID().toString() + PHOTO_SUFFIX;
+        File temp = new File(mDirectory, name + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        boolean written = false;
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.getFD().sync();
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (temp.length() == 0) {
+            temp.delete();
+            throw new IOException("Photo is empty");
+        }
+        if (!temp.renameTo(new File(mDirectory, name))) {
+            temp.delete();
+            throw new IOException("Could not store photo " + name);
+        }
+        return name;
+    }
+
+    /**
+     * Delete the photo with the given name, if there is one.
+     */
+    void delete(String name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            file(name).delete();
+        } catch (IOException e) {
+            // Not one of ours, so there is nothing to delete.
+        }
+    }
+
+    /**
+     * Delete every photo and leftover temporary file that is not in the given set of names,
+     * other than files written in the last minute. Used after deletes that can remove many
+     * pets at once, rather than reading each pet's photo name before deleting it.
+     */
+    void sweep(Set<String> liveNames, long startedAt) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!liveNames.contains(file.getName())
+                    && file.lastModified() < startedAt - SWEEP_GRACE_MS) {
+                file.delete();
+            }
+        }
+    }
+}
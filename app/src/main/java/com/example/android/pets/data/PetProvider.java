@@ -1,18 +1,46 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
-import android.widget.Toast;
+import android.util.SparseArray;
 
+import com.example.android.pets.BuildConfig;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetFilter;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by Simon Aust on 15/08/2017.
@@ -24,25 +52,150 @@ public class PetProvider extends ContentProvider {
 
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int PET_SEARCH = 102;
+    private static final int PET_STATS = 103;
+    private static final int BACKUP = 104;
+    private static final int PURGE = 105;
+    private static final int PET_PHOTO = 106;
+
+    // Number of breeds in the statistics histogram when the caller does not ask for a number.
+    private static final int DEFAULT_TOP_BREEDS = 10;
+
+    private static final String SQL_INSERT_PET = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_PET_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    // Batches of at least this many rows are followed by a passive WAL checkpoint.
+    private static final int LARGE_BATCH_SIZE = 1000;
+
+    // Number of recently read pets kept by the single-pet row cache.
+    private static final int ROW_CACHE_SIZE = 256;
+
+    // How long the writes must pause before observers are told about them, and the longest a
+    // change waits while they do not.
+    private static final long NOTIFY_WINDOW_MS = 100;
+    private static final long NOTIFY_MAX_DELAY_MS = 500;
+
+    // Pets deleted per statement by a purge. Each chunk holds the write lock only briefly.
+    private static final int PURGE_CHUNK_SIZE = 500;
+
+    // Directory under the app's files directory that holds the pets' photos.
+    static final String PHOTO_DIRECTORY = "photos";
 
     private PetDbHelper mDbHelper;
+    // Every call that uses the database holds the read lock. A restore holds the write lock
+    // while it swaps the database file, so it waits for the calls already running, and calls
+    // made meanwhile wait for the restored database.
+    private final ReentrantReadWriteLock mDatabaseLock = new ReentrantReadWriteLock();
+    private ChangeNotifier mNotifier;
+    // Created with the writable database on the first single-pet update or delete.
+    private PetStatementCache mStatementCache;
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+    // Uris changed by the applyBatch() running on the current thread, notified once it ends.
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+    // Set while an applyBatch() runs on the current thread. Photo files are only removed once
+    // the batch has committed, by a sweep, so a rolled back delete keeps its pet's photo.
+    private final ThreadLocal<Boolean> mSweepAfterBatch = new ThreadLocal<>();
+    private PetPhotoStore mPhotoStore;
+    // Off by default in release builds; can be switched on through call().
+    private final ProviderMetrics mMetrics = new ProviderMetrics(BuildConfig.DEBUG);
+    // Progress of the current or last purge.
+    private volatile int mPurgeDeleted;
+    private volatile int mPurgeTotal;
+    // Held by a sync, so two syncs never push or pull the same changes at once.
+    private final Object mSyncLock = new Object();
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH) ;
+    // Names of the uri matches as they appear in the metrics.
+    private static final SparseArray<String> sMatchNames = new SparseArray<>();
 
     static {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_BACKUP, BACKUP);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_PURGE, PURGE);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+
+        sMatchNames.put(UriMatcher.NO_MATCH, "batch");
+        sMatchNames.put(PETS, "pets");
+        sMatchNames.put(PET_ID, "pet_id");
+        sMatchNames.put(PET_SEARCH, "search");
+        sMatchNames.put(PET_STATS, "stats");
+        sMatchNames.put(BACKUP, "backup");
+        sMatchNames.put(PURGE, "purge");
+        sMatchNames.put(PET_PHOTO, "photo");
     }
 
     @Override
     public boolean onCreate() {
        mDbHelper = new PetDbHelper(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MS,
+                NOTIFY_MAX_DELAY_MS);
+        mPhotoStore = new PetPhotoStore(new File(getContext().getFilesDir(), PHOTO_DIRECTORY));
         Log.i(LOG_TAG, "PetProvider onCreate() called.");
+        StartupTrace.mark(StartupTrace.PROVIDER_CREATED);
+        // The provider is created before the first activity, so opening the database now
+        // overlaps with inflating the catalog. The catalog's first query waits for this open
+        // rather than doing it on its own.
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDbHelper.getWritableDatabase();
+                } catch (RuntimeException e) {
+                    // The first real query opens the database again and reports the error.
+                    Log.e(LOG_TAG, "Error opening database in the background", e);
+                }
+            }
+        });
         return true;
     }
 
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return queryPets(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Called instead of the query above on API 16 and up. Lists and searches pass the signal
+     * down to SQLite, so a query the caller no longer wants, such as a search the user has
+     * typed past, stops inside the database instead of running to the end.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        return queryPets(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * Both query overloads end up here. The signal is null when there is none to honour, which
+     * is always the case below API 16.
+     */
+    private Cursor queryPets(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                             String sortOrder, CancellationSignal cancellationSignal) {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doQuery(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder, CancellationSignal cancellationSignal) {
+        long start = mMetrics.start();
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -51,14 +204,28 @@ public class PetProvider extends ContentProvider {
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
-        Log.i(LOG_TAG, "sUriMatcher: " + sUriMatcher);
         switch (match) {
             case PETS:
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                // TODO: Perform database query on pets table
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                PetFilter filter = PetFilter.fromUri(uri);
+                if (!filter.isEmpty()) {
+                    List<String> filterArgs = new ArrayList<>();
+                    String filterSelection = compileFilter(filter, filterArgs);
+                    selection = selection == null || selection.isEmpty()
+                            ? filterSelection
+                            : "(" + selection + ") AND " + filterSelection;
+                    selectionArgs = appendArgs(selectionArgs,
+                            filterArgs.toArray(new String[filterArgs.size()]));
+                }
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_PAGE_SIZE) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs,
+                            cancellationSignal);
+                } else {
+                    cursor = query(database, projection, selection, selectionArgs, sortOrder,
+                            null, cancellationSignal);
+                }
 
                 break;
             case PET_ID:
@@ -70,24 +237,479 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                long id = ContentUris.parseId(uri);
+                // Plain lookups by id are answered from the row cache when possible.
+                if ((selection == null || selection.isEmpty()) && PetRowCache.canServe(projection)) {
+                    cursor = queryPetCached(database, id, projection);
+                    break;
+                }
                 selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(id) };
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(PetDbHelper.PET_DETAILS_VIEW_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PET_SEARCH:
+                cursor = querySearch(database, uri, projection, selection, selectionArgs,
+                        cancellationSignal);
+                break;
+            case PET_STATS:
+                cursor = queryStats(database, uri);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-
+        // Statistics and search results change with any pet, but a change is notified on the
+        // pet's own uri, which is not an ancestor of theirs. Watch the whole collection instead.
+        Uri notificationUri = match == PET_STATS || match == PET_SEARCH
+                ? PetEntry.CONTENT_URI : uri;
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
+        if (start != 0) {
+            // getCount() fills the cursor window, so the time includes reading the rows.
+            mMetrics.record(match, ProviderMetrics.OP_QUERY, start, cursor.getCount());
+        }
         return cursor;
     }
 
+    /**
+     * Answer a single-pet query from the row cache, reading the whole row into the cache on a
+     * miss.
+     */
+    private Cursor queryPetCached(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cached = mRowCache.get(id, projection);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = mRowCache.generation();
+        Object[] row = null;
+        Cursor cursor = database.query(PetDbHelper.PET_DETAILS_VIEW_NAME, PetRowCache.COLUMNS,
+                PetEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                row = mRowCache.put(id, cursor, generation);
+            }
+        } finally {
+            cursor.close();
+        }
+        return PetRowCache.toCursor(row, projection);
+    }
+
+    /**
+     * Drop cached rows made stale by a write to the given uri: the one pet for a single-pet uri,
+     * everything for the collection. Must run after the write and before observers are notified.
+     */
+    private void invalidateRowCache(Uri uri) {
+        if (sUriMatcher.match(uri) == PET_ID) {
+            mRowCache.remove(ContentUris.parseId(uri));
+        } else {
+            mRowCache.clear();
+        }
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (PetContract.METHOD_GET_ROW_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(PetContract.KEY_CACHE_HITS, mRowCache.hitCount());
+            stats.putInt(PetContract.KEY_CACHE_MISSES, mRowCache.missCount());
+            stats.putInt(PetContract.KEY_CACHE_SIZE, mRowCache.size());
+            stats.putInt(PetContract.KEY_CACHE_MAX_SIZE, mRowCache.maxSize());
+            return stats;
+        }
+        if (PetContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.toBundle(sMatchNames);
+        }
+        if (PetContract.METHOD_GET_METRICS_JSON.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(PetContract.KEY_METRICS_JSON, mMetrics.toJson(sMatchNames));
+            return result;
+        }
+        if (PetContract.METHOD_GET_STARTUP_TRACE.equals(method)) {
+            return StartupTrace.toBundle();
+        }
+        if (PetContract.METHOD_GET_PURGE_PROGRESS.equals(method)) {
+            Bundle progress = new Bundle();
+            progress.putInt(PetContract.KEY_PURGE_DELETED, mPurgeDeleted);
+            progress.putInt(PetContract.KEY_PURGE_TOTAL, mPurgeTotal);
+            return progress;
+        }
+        if (PetContract.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        }
+        if (PetContract.METHOD_SET_METRICS_ENABLED.equals(method)) {
+            mMetrics.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        }
+        if (PetContract.METHOD_SYNC.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Sync requires the server endpoint");
+            }
+            return sync(arg);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Sync with the server at the given endpoint. Pulled changes go straight into the database,
+     * so the row cache is cleared and observers notified once, after the whole sync. The engine
+     * takes the read lock itself, only around its database work, so no lock is held while it
+     * waits on the server.
+     */
+    private Bundle sync(String endpoint) {
+        PetSyncEngine.Result result = new PetSyncEngine.Result();
+        Bundle bundle = new Bundle();
+        synchronized (mSyncLock) {
+            try {
+                new PetSyncEngine(mDbHelper, mDatabaseLock.readLock(),
+                        new SyncHttpClient(endpoint)).sync(result);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Sync with " + endpoint + " failed", e);
+                bundle.putString(PetContract.KEY_SYNC_ERROR, e.toString());
+            } finally {
+                if (result.pulled > 0) {
+                    mRowCache.clear();
+                    mNotifier.notifyChange(PetEntry.CONTENT_URI);
+                }
+                if (result.deleted > 0) {
+                    sweepPhotos();
+                }
+            }
+        }
+        bundle.putInt(PetContract.KEY_SYNC_PUSHED, result.pushed);
+        bundle.putInt(PetContract.KEY_SYNC_PULLED, result.pulled);
+        return bundle;
+    }
+
+    /**
+     * Turn a filter into a selection, adding its arguments to args. Each part of the filter
+     * always compiles to the same SQL whatever its values, so there are only a few distinct
+     * statements and each one can use an index:
+     * <ul>
+     * <li>genders: {@code gender IN (?, ?, ?)}, padded with repeats of the first gender, and
+     * weight: {@code weight BETWEEN ? AND ?}, open ends bound to the int limits. Together
+     * these seek the (gender, weight) index. A weight range without genders is given all three,
+     * since weight alone cannot seek that index and would scan the table.</li>
+     * <li>breed: the matching breed ids are looked up in the breeds table, by name or by a
+     * {@code name >= ? AND name < ?} range for a prefix, and then found through the breed_id
+     * index.</li>
+     * <li>name prefix: {@code name >= ? AND name < ?} on the (name, _id, breed_id, photo)
+     * index.</li>
+     * </ul>
+     * Prefixes are ranges rather than LIKE, which is case insensitive and so cannot use the
+     * indexes.
+     */
+    static String compileFilter(PetFilter filter, List<String> args) {
+        StringBuilder where = new StringBuilder();
+        int genderMask = filter.getGenderMask();
+        if (genderMask == 0 && (filter.getMinWeight() != null || filter.getMaxWeight() != null)) {
+            genderMask = 1 << PetEntry.GENDER_UNKNOWN | 1 << PetEntry.GENDER_MALE
+                    | 1 << PetEntry.GENDER_FEMALE;
+        }
+        if (genderMask != 0) {
+            List<String> genders = new ArrayList<>(3);
+            for (int gender = 0; gender < Integer.SIZE; gender++) {
+                if ((genderMask & (1 << gender)) != 0) {
+                    genders.add(String.valueOf(gender));
+                }
+            }
+            while (genders.size() < 3) {
+                genders.add(genders.get(0));
+            }
+            where.append(PetEntry.COLUMN_PET_GENDER).append(" IN (?, ?, ?)");
+            args.addAll(genders);
+        }
+        if (filter.getMinWeight() != null || filter.getMaxWeight() != null) {
+            Integer min = filter.getMinWeight();
+            Integer max = filter.getMaxWeight();
+            and(where).append(PetEntry.COLUMN_PET_WEIGHT).append(" BETWEEN ? AND ?");
+            args.add(String.valueOf(min == null ? Integer.MIN_VALUE : min));
+            args.add(String.valueOf(max == null ? Integer.MAX_VALUE : max));
+        }
+        String breed = filter.getBreed();
+        if (breed != null && !(filter.isBreedPrefix() && breed.isEmpty())) {
+            and(where).append(PetDbHelper.COLUMN_PET_BREED_ID).append(" IN (SELECT ")
+                    .append(BaseColumns._ID).append(" FROM ").append(PetDbHelper.BREEDS_TABLE_NAME)
+                    .append(" WHERE ");
+            if (filter.isBreedPrefix()) {
+                appendPrefix(where, PetDbHelper.COLUMN_BREED_NAME, breed, args);
+            } else {
+                where.append(PetDbHelper.COLUMN_BREED_NAME).append(" = ?");
+                args.add(breed);
+            }
+            where.append(")");
+        }
+        String namePrefix = filter.getNamePrefix();
+        if (namePrefix != null && !namePrefix.isEmpty()) {
+            appendPrefix(and(where), PetEntry.COLUMN_PET_NAME, namePrefix, args);
+        }
+        // Everything was empty prefixes; match every pet.
+        return where.length() == 0 ? "1" : where.toString();
+    }
+
+    private static StringBuilder and(StringBuilder where) {
+        return where.length() == 0 ? where : where.append(" AND ");
+    }
+
+    /**
+     * Append a range that matches the values of column starting with prefix: from the prefix
+     * itself up to, but not including, the prefix with its last character incremented.
+     */
+    private static void appendPrefix(StringBuilder where, String column, String prefix,
+                                     List<String> args) {
+        where.append(column).append(" >= ? AND ").append(column).append(" < ?");
+        args.add(prefix);
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        args.add(end == 0
+                ? prefix + Character.MAX_VALUE
+                : prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1));
+    }
+
+    /**
+     * Query a single page of the pets table. Rather than skipping rows with an OFFSET, the page
+     * starts after the key of the last row of the previous page, either _id or (name, _id), so
+     * each page is a seek on the primary key or the (name, _id, ...) index followed by a LIMIT,
+     * read in index order without a sort.
+     * Any sort order given by the caller is replaced by the page order.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs,
+                             CancellationSignal cancellationSignal) {
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        boolean byName = PetEntry.PAGE_ORDER_NAME.equals(
+                uri.getQueryParameter(PetEntry.QUERY_PARAMETER_PAGE_ORDER));
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        String afterName = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_NAME);
+
+        String keySelection = null;
+        String[] keyArgs = null;
+        if (byName && afterName != null && afterId != null) {
+            // Written as a range on name so the index is scanned in order from the key, rather
+            // than as an OR that SQLite would answer with two lookups and a sort.
+            keySelection = PetEntry.COLUMN_PET_NAME + " >= ? AND (" + PetEntry.COLUMN_PET_NAME
+                    + " > ? OR " + PetEntry._ID + " > ?)";
+            keyArgs = new String[] { afterName, afterName, afterId };
+        } else if (!byName && afterId != null) {
+            keySelection = PetEntry._ID + " > ?";
+            keyArgs = new String[] { afterId };
+        }
+
+        if (keySelection != null) {
+            if (selection == null || selection.isEmpty()) {
+                selection = keySelection;
+                selectionArgs = keyArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keySelection;
+                selectionArgs = appendArgs(selectionArgs, keyArgs);
+            }
+        }
+
+        String orderBy = byName
+                ? PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID
+                : PetEntry._ID;
+        return query(database, projection, selection, selectionArgs, orderBy,
+                String.valueOf(pageSize), cancellationSignal);
+    }
+
+    /**
+     * Find pets through the full-text index. Every word of the search term has to prefix-match
+     * a word in the name or breed. Pets whose name starts with the first word come first, then
+     * results are ordered by name. A page_size parameter limits the number of results.
+     */
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs,
+                               CancellationSignal cancellationSignal) {
+        String term = uri.getLastPathSegment();
+        StringBuilder match = new StringBuilder();
+        String firstWord = null;
+        // The FTS tokenizer splits on anything that isn't a letter or digit, so doing the same
+        // here also strips out any query syntax.
+        for (String word : term.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (firstWord == null) {
+                firstWord = word;
+            }
+            match.append(word).append("* ");
+        }
+        if (firstWord == null) {
+            throw new IllegalArgumentException("Empty search term for " + uri);
+        }
+
+        String searchSelection = PetEntry._ID + " IN (SELECT docid FROM "
+                + PetDbHelper.SEARCH_TABLE_NAME + " WHERE " + PetDbHelper.SEARCH_TABLE_NAME + " MATCH ?)";
+        String[] searchArgs = { match.toString().trim() };
+        if (selection != null && !selection.isEmpty()) {
+            selection = "(" + selection + ") AND " + searchSelection;
+            selectionArgs = appendArgs(selectionArgs, searchArgs);
+        } else {
+            selection = searchSelection;
+            selectionArgs = searchArgs;
+        }
+
+        // The ORDER BY placeholder is bound after the selection arguments.
+        String orderBy = "CASE WHEN " + PetEntry.COLUMN_PET_NAME + " LIKE ? THEN 0 ELSE 1 END, "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID;
+        selectionArgs = appendArgs(selectionArgs, new String[] { firstWord + "%" });
+        return query(database, projection, selection, selectionArgs, orderBy,
+                uri.getQueryParameter(PetEntry.QUERY_PARAMETER_PAGE_SIZE), cancellationSignal);
+    }
+
+    /**
+     * Query the pets, with their breed names, through the cancellable overload when there is a
+     * signal. A cancelled query throws OperationCanceledException, which the caller's loader
+     * expects.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor query(SQLiteDatabase database, String[] projection, String selection,
+                                String[] selectionArgs, String orderBy, String limit,
+                                CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return database.query(PetDbHelper.PET_DETAILS_VIEW_NAME, projection, selection,
+                    selectionArgs, null, null, orderBy, limit);
+        }
+        return database.query(false, PetDbHelper.PET_DETAILS_VIEW_NAME, projection, selection, selectionArgs,
+                null, null, orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Build the statistics cursor from the summary tables. None of these reads touch the pets
+     * table, so the cost depends on the number of distinct breeds and weights, not on the
+     * number of pets.
+     */
+    private Cursor queryStats(SQLiteDatabase database, Uri uri) {
+        int topBreeds = DEFAULT_TOP_BREEDS;
+        String topBreedsParameter = uri.getQueryParameter(PetStatsEntry.QUERY_PARAMETER_TOP_BREEDS);
+        if (topBreedsParameter != null) {
+            try {
+                topBreeds = Integer.parseInt(topBreedsParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number of breeds for " + uri);
+            }
+            // SQLite reads a negative LIMIT as no limit at all.
+            if (topBreeds <= 0) {
+                throw new IllegalArgumentException("Invalid number of breeds for " + uri);
+            }
+        }
+
+        MatrixCursor stats = new MatrixCursor(new String[] {
+                PetStatsEntry._ID, PetStatsEntry.COLUMN_STAT,
+                PetStatsEntry.COLUMN_KEY, PetStatsEntry.COLUMN_VALUE });
+
+        // Counts per gender, including genders no pet has yet.
+        long[] genderCounts = new long[3];
+        Cursor cursor = database.query(PetDbHelper.GENDER_STATS_TABLE_NAME, null,
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int gender = cursor.getInt(0);
+                if (PetEntry.isValidGender(gender)) {
+                    genderCounts[gender] = cursor.getLong(1);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        int[] genders = { PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE };
+        for (int gender : genders) {
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_GENDER_COUNT,
+                    gender, genderCounts[gender] });
+        }
+
+        // The most common breeds, most common first.
+        cursor = database.query(PetDbHelper.BREED_STATS_TABLE_NAME, null, null, null, null, null,
+                PetDbHelper.COLUMN_STATS_COUNT + " DESC", String.valueOf(topBreeds));
+        try {
+            while (cursor.moveToNext()) {
+                stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_BREED_COUNT,
+                        cursor.getString(0), cursor.getLong(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Weight statistics from the histogram, read once in weight order.
+        cursor = database.query(PetDbHelper.WEIGHT_STATS_TABLE_NAME, null, null, null, null, null,
+                PetEntry.COLUMN_PET_WEIGHT);
+        try {
+            long pets = 0;
+            long totalWeight = 0;
+            while (cursor.moveToNext()) {
+                pets += cursor.getLong(1);
+                totalWeight += cursor.getLong(0) * cursor.getLong(1);
+            }
+            Long min = null;
+            Long max = null;
+            Double mean = null;
+            if (pets > 0) {
+                cursor.moveToFirst();
+                min = cursor.getLong(0);
+                cursor.moveToLast();
+                max = cursor.getLong(0);
+                mean = (double) totalWeight / pets;
+            }
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_MIN, null, min });
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_MAX, null, max });
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_MEAN, null, mean });
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_MEDIAN, null,
+                    weightPercentile(cursor, pets, 0.5) });
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_P90, null,
+                    weightPercentile(cursor, pets, 0.9) });
+            stats.addRow(new Object[] { stats.getCount(), PetStatsEntry.STAT_WEIGHT_P99, null,
+                    weightPercentile(cursor, pets, 0.99) });
+        } finally {
+            cursor.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Find the weight below which the given fraction of pets fall, by walking the weight
+     * histogram until the cumulative count reaches that rank. Returns null when there are no pets.
+     */
+    private static Long weightPercentile(Cursor histogram, long pets, double fraction) {
+        if (pets == 0) {
+            return null;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * pets));
+        long seen = 0;
+        histogram.moveToPosition(-1);
+        while (histogram.moveToNext()) {
+            seen += histogram.getLong(1);
+            if (seen >= rank) {
+                return histogram.getLong(0);
+            }
+        }
+        return null;
+    }
+
+    private static String[] appendArgs(String[] args, String[] extra) {
+        if (args == null) {
+            return extra;
+        }
+        String[] combined = new String[args.length + extra.length];
+        System.arraycopy(args, 0, combined, 0, args.length);
+        System.arraycopy(extra, 0, combined, args.length, extra.length);
+        return combined;
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
@@ -99,6 +721,21 @@ public class PetProvider extends ContentProvider {
             case PET_ID: {
                 return PetEntry.CONTENT_ITEM_TYPE;
             }
+            case PET_SEARCH: {
+                return PetEntry.CONTENT_LIST_TYPE;
+            }
+            case PET_STATS: {
+                return PetStatsEntry.CONTENT_LIST_TYPE;
+            }
+            case BACKUP: {
+                return PetContract.BACKUP_MIME_TYPE;
+            }
+            case PURGE: {
+                return PetEntry.CONTENT_LIST_TYPE;
+            }
+            case PET_PHOTO: {
+                return PetEntry.PHOTO_MIME_TYPE;
+            }
             default: {
                 throw new IllegalArgumentException("Unknown URI " + uri + "with match " + match);
             }
@@ -108,22 +745,68 @@ public class PetProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doInsert(uri, values);
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private Uri doInsert(Uri uri, ContentValues values) {
+        long start = mMetrics.start();
         //int to hold the UriMatcher result
         int match = sUriMatcher.match(uri);
 
+        Uri petUri;
         switch (match){
             case PETS:
-                return insertPet(uri, values);
+                petUri = insertPet(uri, values);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
+        mMetrics.record(match, ProviderMetrics.OP_INSERT, start, petUri == null ? 0 : 1);
+        return petUri;
     }
 
     private Uri insertPet(Uri uri, ContentValues values) {
+        validatePet(values);
+        //Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The new breed and the pet commit together, so a failed insert leaves no stray breed.
+        long rowId;
+        database.beginTransaction();
+        try {
+            rowId = database.insert(PetEntry.TABLE_NAME, null,
+                    new BreedDictionary(database).encode(values));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Callers report the outcome themselves; the provider may be running on any thread.
+        // Null is what ContentResolver.insert() documents for a row that was not inserted.
+        if (rowId == -1){
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        Uri petUri = ContentUris.withAppendedId(uri, rowId);
+        // Observers of the pets list are descendants-aware, so they still see the new pet.
+        notifyChange(petUri);
+        return petUri;
+    }
+
+    /**
+     * Check that the given values describe a valid new pet, throwing an
+     * {@link IllegalArgumentException} if they do not. Shared by single and bulk inserts, and
+     * by {@link PetImporter} to report bad rows before they reach the provider.
+     */
+    static void validatePet(ContentValues values) {
         //Data validation of each ContentValues item
         String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        Log.i(LOG_TAG, "name value: " + name);
         if (name == null||name.isEmpty()) {
             throw new IllegalArgumentException("Pet requires a name");
         }
@@ -136,22 +819,487 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet requires a weight");
         }
         Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (!PetEntry.isValidGender(gender)) {
+        if (gender == null || !PetEntry.isValidGender(gender)) {
             throw new IllegalArgumentException("Pet requires a gender");
         }
-        //Get writable database
+        checkNoPhoto(values);
+    }
+
+    /**
+     * A {@link PetFilter} only narrows queries. Writes take a selection instead, so a filter on
+     * a write uri is refused rather than ignored, which would touch every pet.
+     */
+    private static void checkNoFilter(Uri uri) {
+        if (PetFilter.isIn(uri)) {
+            throw new IllegalArgumentException("Filters only apply to queries, not to " + uri);
+        }
+    }
+
+    /**
+     * The photo column names a file in the provider's own directory, so it can only be set by
+     * writing to the photo uri.
+     */
+    private static void checkNoPhoto(ContentValues values) {
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Photos are written through the photo uri");
+        }
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doBulkInsert(uri, values);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
+        long start = mMetrics.start();
+        int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+        }
+        if (values.length == 0) {
+            return 0;
+        }
+        // Validate every row up front so a bad row fails the whole import before anything
+        // is written.
+        for (ContentValues row : values) {
+            validatePet(row);
+        }
+
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        // One transaction and one compiled statement for the whole batch, instead of an
+        // implicit transaction (and fsync) per row.
+        database.beginTransaction();
+        SQLiteStatement statement = null;
+        try {
+            statement = database.compileStatement(SQL_INSERT_PET);
+            // Shared by the whole batch, so each breed is looked up once.
+            BreedDictionary breeds = new BreedDictionary(database);
+            for (ContentValues row : values) {
+                Integer weight = row.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+                statement.bindString(1, row.getAsString(PetEntry.COLUMN_PET_NAME));
+                statement.bindLong(2, breeds.intern(row.getAsString(PetEntry.COLUMN_PET_BREED)));
+                statement.bindLong(3, row.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+                statement.bindLong(4, weight == null ? 0 : weight);
+                if (statement.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+                statement.clearBindings();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            database.endTransaction();
+        }
 
-        long rowId = database.insert(PetEntry.TABLE_NAME, null, values);
+        // A single notification for the whole batch rather than one per row.
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        if (rowsInserted >= LARGE_BATCH_SIZE) {
+            mDbHelper.checkpointPassive();
+        }
+        mMetrics.record(match, ProviderMetrics.OP_BULK_INSERT, start, rowsInserted);
+        return rowsInserted;
+    }
 
-        if (rowId == -1){
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            Toast.makeText(getContext(), "Error saving pet", Toast.LENGTH_SHORT).show();
+    /**
+     * Apply the batch inside a single database transaction, so if an operation fails the
+     * batch is rolled back. Change notifications are collected while the batch runs and handed
+     * to the notifier once it has committed.
+     * <p>
+     * An operation built with {@code withYieldAllowed(true)} marks a point where, if another
+     * connection is waiting to write, the work done so far is committed and the rest of the
+     * batch carries on in a new transaction. Such a batch is only atomic between its yield
+     * points: a failure after a yield rolls back to the last yield, not to the start, and the
+     * changes committed before it have already been notified. Callers that need all or nothing
+     * leave yields off.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doApplyBatch(operations);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ContentProviderResult[] doApplyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = mMetrics.start();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> pending = new HashSet<>();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean committed = false;
+
+        mPendingNotifications.set(pending);
+        mSweepAfterBatch.set(false);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    // What came before the yield is committed; let observers see it now.
+                    mRowCache.clear();
+                    mNotifier.notifyChanges(new HashSet<>(pending));
+                    pending.clear();
+                    if (mSweepAfterBatch.get()) {
+                        mSweepAfterBatch.set(false);
+                        sweepPhotos();
+                    }
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+            boolean sweep = mSweepAfterBatch.get();
+            mSweepAfterBatch.remove();
+            // Rows the batch changed may have been read back into the cache from another
+            // connection before the batch committed.
+            mRowCache.clear();
+            if (committed) {
+                mNotifier.notifyChanges(pending);
+                if (sweep) {
+                    sweepPhotos();
+                }
+            }
+        }
+        if (operations.size() >= LARGE_BATCH_SIZE) {
+            mDbHelper.checkpointPassive();
+        }
+        mMetrics.record(UriMatcher.NO_MATCH, ProviderMetrics.OP_APPLY_BATCH, start, operations.size());
+        return results;
+    }
+
+    /**
+     * Open the backup uri or a pet's photo uri. Reading the backup returns a pipe the database
+     * snapshot is streamed into from a background thread. Writing returns a pipe whose contents
+     * replace the database once the caller closes it. If the backup fails part way the reader
+     * sees a short file, which a restore rejects.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == PET_PHOTO) {
+            return openPhoto(uri, mode);
+        }
+        if (match != BACKUP) {
+            throw new FileNotFoundException("Cannot open unknown URI " + uri);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe: " + e.getMessage());
+        }
+        if ("r".equals(mode)) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    backup(pipe[1]);
+                }
+            });
+            return pipe[0];
+        }
+        if ("w".equals(mode) || "wt".equals(mode)) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    restore(pipe[0]);
+                }
+            });
+            return pipe[1];
+        }
+        throw new FileNotFoundException("Unsupported mode " + mode + " for " + uri);
+    }
+
+    /**
+     * Open a pet's photo. Reading opens the photo file itself, read only. Writing returns a
+     * pipe that is copied into a new photo file from a background thread; once the caller
+     * closes it the pet is pointed at the new file and the old one is deleted. Readers never
+     * see a half written photo.
+     */
+    private ParcelFileDescriptor openPhoto(Uri uri, String mode) throws FileNotFoundException {
+        final long id = Long.parseLong(uri.getPathSegments().get(1));
+        if ("r".equals(mode)) {
+            String name;
+            Lock lock = mDatabaseLock.readLock();
+            lock.lock();
+            try {
+                name = queryPhotoName(mDbHelper.getReadableDatabase(), id);
+            } finally {
+                lock.unlock();
+            }
+            if (name == null) {
+                throw new FileNotFoundException("No photo for " + uri);
+            }
+            try {
+                return ParcelFileDescriptor.open(mPhotoStore.file(name),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (IOException e) {
+                throw new FileNotFoundException("Cannot open photo for " + uri + ": " + e.getMessage());
+            }
+        }
+        if (!"w".equals(mode) && !"wt".equals(mode)) {
+            throw new FileNotFoundException("Unsupported mode " + mode + " for " + uri);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe: " + e.getMessage());
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                receivePhoto(id, pipe[0]);
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Store the photo written to the given pipe and make it the pet's photo.
+     */
+    private void receivePhoto(long id, ParcelFileDescriptor input) {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        try {
+            storePhoto(id, in);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Storing photo for pet " + id + " failed", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing photo pipe", e);
+            }
+        }
+    }
+
+    /**
+     * Copy the given stream into a new photo file and point the pet at it, then delete the
+     * pet's old photo. If the pet is gone by then, the new file is deleted instead.
+     */
+    void storePhoto(long id, InputStream in) throws IOException {
+        String name = mPhotoStore.write(in);
+        String oldName;
+        int rowsUpdated;
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                oldName = queryPhotoName(database, id);
+                ContentValues values = new ContentValues(1);
+                values.put(PetEntry.COLUMN_PET_PHOTO, name);
+                rowsUpdated = database.update(PetEntry.TABLE_NAME, values, PetEntry._ID + "=?",
+                        new String[] { String.valueOf(id) });
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (rowsUpdated == 0) {
+            // The pet was deleted while its photo was being written.
+            mPhotoStore.delete(name);
+            return;
+        }
+        mPhotoStore.delete(oldName);
+        Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+        invalidateRowCache(petUri);
+        mNotifier.notifyChange(petUri);
+    }
+
+    /**
+     * The file name of the given pet's photo, or null if it has none or does not exist.
+     */
+    private static String queryPhotoName(SQLiteDatabase database, long id) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_PET_PHOTO },
+                PetEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Delete the photo of a pet that has just been deleted. During a batch this is left to the
+     * sweep at the end, in case the batch is rolled back.
+     */
+    private void deletePhoto(String name) {
+        if (name == null) {
+            return;
+        }
+        if (mSweepAfterBatch.get() != null) {
+            mSweepAfterBatch.set(true);
+        } else {
+            mPhotoStore.delete(name);
+        }
+    }
+
+    /**
+     * Delete, in the background, every photo file no pet refers to any more. Run after deletes
+     * that can remove many pets at once, and after a restore.
+     */
+    private void sweepPhotos() {
+        if (mSweepAfterBatch.get() != null) {
+            mSweepAfterBatch.set(true);
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Taken before the names are read, so a photo stored after this is never swept.
+                long startedAt = System.currentTimeMillis();
+                Set<String> liveNames = new HashSet<>();
+                Lock lock = mDatabaseLock.readLock();
+                lock.lock();
+                try {
+                    Cursor cursor = mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                            new String[] { PetEntry.COLUMN_PET_PHOTO },
+                            PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL", null, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            liveNames.add(cursor.getString(0));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    mPhotoStore.sweep(liveNames, startedAt);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error sweeping photos", e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    private void backup(ParcelFileDescriptor output) {
+        ParcelFileDescriptor.AutoCloseOutputStream out =
+                new ParcelFileDescriptor.AutoCloseOutputStream(output);
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            mDbHelper.backupTo(out);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Backup failed", e);
+        } finally {
+            lock.unlock();
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing backup pipe", e);
+            }
+        }
+    }
+
+    /**
+     * Restore the database from a backup written to the given pipe, then close it.
+     */
+    private void restore(ParcelFileDescriptor input) {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        try {
+            restore(in);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Restore failed", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing restore pipe", e);
+            }
+        }
+    }
+
+    /**
+     * Restore the database from a backup read from the given stream. The backup is received
+     * and checked first, with the database still in use. Swapping it in then takes the write
+     * lock, which waits for every call that is using the old database and holds off new ones
+     * until the restored database is in place. The statement cache is compiled against the old
+     * database, so it is closed and built again on next use, and the row cache is emptied.
+     * Cursors returned earlier keep reading the old database until they are closed.
+     */
+    void restore(InputStream in) throws IOException {
+        File restoreFile = mDbHelper.receiveRestore(in);
+        Lock lock = mDatabaseLock.writeLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                if (mStatementCache != null) {
+                    mStatementCache.close();
+                    mStatementCache = null;
+                }
+            }
+            mDbHelper.installRestore(restoreFile);
+            mRowCache.clear();
+        } finally {
+            lock.unlock();
+        }
+        mNotifier.notifyChange(PetEntry.CONTENT_URI);
+        // Backups hold only the database, so photos of pets the restored data does not
+        // have are removed, and pets whose photo is gone have none.
+        sweepPhotos();
+    }
+
+    /**
+     * Once the app's UI is hidden, convert the database to incremental auto-vacuum if it still
+     * needs it, then fold the write-ahead log back into the database and truncate it, all off
+     * the main thread.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Lock lock = mDatabaseLock.readLock();
+                    lock.lock();
+                    try {
+                        mDbHelper.convertToIncrementalVacuum();
+                        mDbHelper.checkpointTruncate();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Notify observers that the data at the given uri has changed, or hold the notification
+     * back until the end of the batch if one is running on this thread. Either way the
+     * notifier merges it with other changes made within its window.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
         } else {
-            Toast.makeText(getContext(), "Pet saved with id: " + rowId, Toast.LENGTH_SHORT).show();
+            mNotifier.notifyChange(uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        return ContentUris.withAppendedId(uri, rowId);
     }
 
     /* private void warningToast (int warningCode) {
@@ -167,50 +1315,149 @@ public class PetProvider extends ContentProvider {
 
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doDelete(uri, selection, selectionArgs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
+        long start = mMetrics.start();
+        checkNoFilter(uri);
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         final int match = sUriMatcher.match(uri);
+        int rowsDeleted;
         switch (match) {
             case PETS: {
-                int rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = database.delete(PetEntry.TABLE_NAME, tableSelection(selection),
+                        selectionArgs);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    sweepPhotos();
                 }
-                return rowsDeleted;
-
+                break;
             }
             case PET_ID: {
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri))};
-
-                int rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                String photo = queryPhotoName(database, id);
+                rowsDeleted = getStatementCache().deleteById(id);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    deletePhoto(photo);
                 }
-                return rowsDeleted;
+                break;
+            }
+            case PURGE: {
+                rowsDeleted = purge(database, uri, selection, selectionArgs);
+                break;
             }
             default: throw new IllegalArgumentException("Error deleting row" + uri);
         }
+        if (rowsDeleted != 0 && match != PURGE) {
+            invalidateRowCache(uri);
+            notifyChange(uri);
+        }
+        mMetrics.record(match, ProviderMetrics.OP_DELETE, start, rowsDeleted);
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the matching pets a chunk of _ids at a time, then reclaim the freed pages. Each
+     * chunk is a single statement, so the write lock is released between chunks and other
+     * writers get a turn. Observers are notified after every chunk, and the counts are
+     * available through {@link PetContract#METHOD_GET_PURGE_PROGRESS}.
+     */
+    private int purge(SQLiteDatabase database, Uri uri, String selection, String[] selectionArgs) {
+        boolean selected = selection != null && !selection.isEmpty();
+        // The same selection, for reading through the details view and for deleting.
+        String where = selected ? "(" + selection + ") AND " : "";
+        String tableWhere = selected ? tableSelection(selection) + " AND " : "";
+        mPurgeDeleted = 0;
+        mPurgeTotal = (int) DatabaseUtils.queryNumEntries(database, PetDbHelper.PET_DETAILS_VIEW_NAME,
+                selection, selectionArgs);
+
+        int rowsDeleted = 0;
+        long afterId = Long.MIN_VALUE;
+        while (true) {
+            // The _id the chunk ends at, or none if fewer than a chunk of pets is left.
+            Long lastId = null;
+            Cursor chunkEnd = database.query(PetDbHelper.PET_DETAILS_VIEW_NAME,
+                    new String[] { PetEntry._ID },
+                    where + PetEntry._ID + " > ?",
+                    appendArgs(selectionArgs, new String[] { String.valueOf(afterId) }),
+                    null, null, PetEntry._ID, (PURGE_CHUNK_SIZE - 1) + ", 1");
+            try {
+                if (chunkEnd.moveToFirst()) {
+                    lastId = chunkEnd.getLong(0);
+                }
+            } finally {
+                chunkEnd.close();
+            }
+
+            int deleted;
+            if (lastId == null) {
+                deleted = database.delete(PetEntry.TABLE_NAME, tableWhere + PetEntry._ID + " > ?",
+                        appendArgs(selectionArgs, new String[] { String.valueOf(afterId) }));
+            } else {
+                deleted = database.delete(PetEntry.TABLE_NAME,
+                        tableWhere + PetEntry._ID + " > ? AND " + PetEntry._ID + " <= ?",
+                        appendArgs(selectionArgs, new String[] {
+                                String.valueOf(afterId), String.valueOf(lastId) }));
+            }
+            rowsDeleted += deleted;
+            mPurgeDeleted = rowsDeleted;
+            if (deleted != 0) {
+                mRowCache.clear();
+                notifyChange(uri);
+            }
+            if (lastId == null) {
+                break;
+            }
+            afterId = lastId;
+        }
 
+        if (rowsDeleted != 0) {
+            sweepPhotos();
+            mDbHelper.incrementalVacuum();
+        }
+        return rowsDeleted;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        Lock lock = mDatabaseLock.readLock();
+        lock.lock();
+        try {
+            return doUpdate(uri, contentValues, selection, selectionArgs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int doUpdate(Uri uri, ContentValues contentValues, String selection,
+                         String[] selectionArgs) {
+        long start = mMetrics.start();
+        checkNoFilter(uri);
         final int match = sUriMatcher.match(uri);
+        int rowsUpdated;
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // so we know which row to update. The id is bound straight into a cached
+                // statement rather than through a selection.
+                rowsUpdated = updatePet(uri, contentValues, ContentUris.parseId(uri));
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mMetrics.record(match, ProviderMetrics.OP_UPDATE, start, rowsUpdated);
+        return rowsUpdated;
     }
 
     /**
@@ -219,6 +1466,68 @@ public class PetProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (!validateUpdate(values)) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows affected. The breed is
+        // added in the same transaction, so it is rolled back with a failed update.
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            rowsUpdated = database.update(PetEntry.TABLE_NAME,
+                    new BreedDictionary(database).encode(values), tableSelection(selection),
+                    selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        onPetsUpdated(uri, rowsUpdated);
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the single pet with the given id through the statement cache.
+     */
+    private int updatePet(Uri uri, ContentValues values, long id) {
+        if (!validateUpdate(values)) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            rowsUpdated = getStatementCache().updateById(id,
+                    new BreedDictionary(database).encode(values));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        onPetsUpdated(uri, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    /**
+     * Selections are written against the columns callers see, breed included, but writes go
+     * to the pets table, which only has breed_id. Apply a selection to the pets through the
+     * details view instead.
+     */
+    private static String tableSelection(String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return selection;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+                + PetDbHelper.PET_DETAILS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Check the values of an update, throwing an {@link IllegalArgumentException} if they are
+     * invalid. Returns false if there is nothing to update.
+     */
+    private boolean validateUpdate(ContentValues values) {
         if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
             String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
             if (name == null) {
@@ -227,7 +1536,7 @@ public class PetProvider extends ContentProvider {
         }
         if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
             Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight < 0 && weight != null) {
+            if (weight != null && weight < 0) {
                 throw new IllegalArgumentException("Pet needs a weight value.");
             }
         }
@@ -237,20 +1546,25 @@ public class PetProvider extends ContentProvider {
                 throw new IllegalArgumentException("Pet needs a gender");
             }
         }
-        if (values.equals(0)) {
-            return 0;
-        }
-
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        checkNoPhoto(values);
+        return values.size() != 0;
+    }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+    /**
+     * If 1 or more rows were updated, then notify all listeners that the data at the
+     * given URI has changed.
+     */
+    private void onPetsUpdated(Uri uri, int rowsUpdated) {
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateRowCache(uri);
+            notifyChange(uri);
         }
-        // Return the number of rows updated
-        return rowsUpdated;
+    }
+
+    private synchronized PetStatementCache getStatementCache() {
+        if (mStatementCache == null) {
+            mStatementCache = new PetStatementCache(mDbHelper.getWritableDatabase());
+        }
+        return mStatementCache;
     }
 }
@@ -0,0 +1,133 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A size-bounded, least recently used cache of whole pet rows keyed by _id, used by
+ * {@link PetProvider} to answer single-pet queries without going to SQLite.
+ */
+class PetRowCache {
+
+    /** The columns held for each cached pet, in table order. */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    private static final List<String> COLUMN_LIST = Arrays.asList(COLUMNS);
+
+    private final LruCache<Long, Object[]> mRows;
+
+    // Bumped on every invalidation. A row read from the database is only cached if nothing was
+    // invalidated while it was being read, so a slow reader can't put back a stale row.
+    private int mGeneration;
+
+    PetRowCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Whether a query with the given projection can be answered from cached rows.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!COLUMN_LIST.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized int generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Return the cached pet as a cursor over the given projection, or null on a miss.
+     */
+    Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            return null;
+        }
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Read the current row of a cursor over {@link #COLUMNS} into the cache, unless the cache
+     * was invalidated after the given generation. Returns the row read.
+     */
+    Object[] put(long id, Cursor cursor, int generation) {
+        Object[] row = new Object[COLUMNS.length];
+        row[0] = cursor.getLong(0);
+        row[1] = cursor.getString(1);
+        row[2] = cursor.getString(2);
+        row[3] = cursor.getInt(3);
+        row[4] = cursor.getInt(4);
+        row[5] = cursor.getString(5);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRows.put(id, row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Build a single-row cursor over the given projection, or an empty one when row is null.
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (row != null) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row[COLUMN_LIST.indexOf(projection[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    synchronized void remove(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    int maxSize() {
+        return mRows.maxSize();
+    }
+}
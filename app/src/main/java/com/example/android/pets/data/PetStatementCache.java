@@ -0,0 +1,145 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled statements for the single-pet write paths of {@link PetProvider}: one delete by id,
+ * and one update by id for each set of columns that has been updated. The id is bound as a
+ * long, and no selection string or argument array is built per call.
+ * <p>
+ * A SQLiteStatement holds its bound arguments, so a statement is taken out of the cache while
+ * it runs and put back afterwards. No lock is held while a statement waits for the database,
+ * which could otherwise deadlock against a batch transaction on another thread.
+ */
+class PetStatementCache {
+
+    // Most callers update the same one or two column sets, so a handful of statements is plenty.
+    private static final int MAX_STATEMENTS = 8;
+
+    private static final String DELETE_KEY = "delete";
+
+    private final SQLiteDatabase mDatabase;
+    private boolean mClosed;
+
+    // Idle statements by key, least recently used first so the eldest can be closed when full.
+    private final Map<String, SQLiteStatement> mIdle =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    PetStatementCache(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Delete the pet with the given id and return the number of rows deleted.
+     */
+    int deleteById(long id) {
+        SQLiteStatement statement = acquire(DELETE_KEY);
+        if (statement == null) {
+            statement = mDatabase.compileStatement("DELETE FROM " + PetEntry.TABLE_NAME
+                    + " WHERE " + PetEntry._ID + " = ?");
+        }
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(DELETE_KEY, statement);
+        }
+    }
+
+    /**
+     * Update the pet with the given id with the given, non-empty, values and return the number
+     * of rows updated.
+     */
+    int updateById(long id, ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        // Sorted, so the same columns share a statement whatever order they were put in.
+        Arrays.sort(columns);
+        String key = Arrays.toString(columns);
+
+        SQLiteStatement statement = acquire(key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("UPDATE " + PetEntry.TABLE_NAME + " SET ");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append(columns[i]).append(" = ?");
+            }
+            sql.append(" WHERE " + PetEntry._ID + " = ?");
+            statement = mDatabase.compileStatement(sql.toString());
+        }
+
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                bind(statement, i + 1, values.get(columns[i]));
+            }
+            statement.bindLong(columns.length + 1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(key, statement);
+        }
+    }
+
+    /**
+     * Take the idle statement for the given key out of the cache, or return null if there is
+     * none and the caller has to compile one.
+     */
+    private synchronized SQLiteStatement acquire(String key) {
+        return mIdle.remove(key);
+    }
+
+    /**
+     * Put a statement back once it has run. If another thread already put one back for the
+     * same key, or the cache is closed, this one is closed instead.
+     */
+    private synchronized void release(String key, SQLiteStatement statement) {
+        statement.clearBindings();
+        if (mClosed || mIdle.containsKey(key)) {
+            statement.close();
+        } else {
+            mIdle.put(key, statement);
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Close every idle statement. Statements still running are closed when they are released.
+     */
+    synchronized void close() {
+        mClosed = true;
+        for (SQLiteStatement statement : mIdle.values()) {
+            statement.close();
+        }
+        mIdle.clear();
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Two-way delta sync of the pets with the shelter server. Only pets changed since the last
+ * sync travel: a push sends the change log rows after the last pushed sequence number, and a
+ * pull asks the server for its changes after the cursor it handed out last time. Both go in
+ * batches, and progress is saved after each batch, so an interrupted sync picks up where it
+ * stopped.
+ * <p>
+ * Conflicts are resolved the same way on every device and on the server:
+ * <ul>
+ * <li>Each column keeps the value with the latest change time. Edits to different columns of
+ * the same pet on two devices are both kept.</li>
+ * <li>When two changes to a column have the same time, the larger value wins: numbers by
+ * value, text by {@link String#compareTo}, and any value over no value.</li>
+ * <li>A delete wins over every change to the pet, earlier or later.</li>
+ * </ul>
+ * Change times come from the device clocks.
+ * <p>
+ * The database lock is only held while the change log is read, while progress is saved and
+ * while a pulled page is applied, never while waiting on the network, so a slow server does
+ * not hold off a restore. A restore during a sync stops it, since the progress it has would
+ * not match the restored database.
+ */
+class PetSyncEngine {
+
+    private static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    // Changes sent per push request and asked for per pull request.
+    private static final int BATCH_SIZE = 500;
+
+    // Columns of SQL_SELECT_CHANGES and SQL_SELECT_LOCAL
+    private static final int COLUMN_SYNC_ID = 0;
+    private static final int COLUMN_SEQ = 1;
+    private static final int COLUMN_DELETED = 2;
+    private static final int COLUMN_DELETED_AT = 3;
+    private static final int COLUMN_NAME_AT = 4;
+    private static final int COLUMN_BREED_AT = 5;
+    private static final int COLUMN_GENDER_AT = 6;
+    private static final int COLUMN_WEIGHT_AT = 7;
+    private static final int COLUMN_PET_ID = 8;
+    private static final int COLUMN_NAME = 9;
+    private static final int COLUMN_BREED = 10;
+    private static final int COLUMN_GENDER = 11;
+    private static final int COLUMN_WEIGHT = 12;
+
+    // Each change log row with the pet's current values, if it still exists.
+    private static final String SQL_SELECT = "SELECT c." + PetDbHelper.COLUMN_PET_SYNC_ID
+            + ", c." + PetDbHelper.COLUMN_CHANGE_SEQ
+            + ", c." + PetDbHelper.COLUMN_CHANGE_DELETED
+            + ", c." + PetDbHelper.COLUMN_CHANGE_DELETED_AT
+            + ", c." + PetChange.changedAt(PetEntry.COLUMN_PET_NAME)
+            + ", c." + PetChange.changedAt(PetEntry.COLUMN_PET_BREED)
+            + ", c." + PetChange.changedAt(PetEntry.COLUMN_PET_GENDER)
+            + ", c." + PetChange.changedAt(PetEntry.COLUMN_PET_WEIGHT)
+            + ", p." + PetEntry._ID
+            + ", p." + PetEntry.COLUMN_PET_NAME
+            + ", b." + PetDbHelper.COLUMN_BREED_NAME
+            + ", p." + PetEntry.COLUMN_PET_GENDER
+            + ", p." + PetEntry.COLUMN_PET_WEIGHT
+            + " FROM " + PetDbHelper.CHANGES_TABLE_NAME + " c LEFT JOIN " + PetEntry.TABLE_NAME
+            + " p ON p." + PetDbHelper.COLUMN_PET_SYNC_ID + " = c." + PetDbHelper.COLUMN_PET_SYNC_ID
+            + " LEFT JOIN " + PetDbHelper.BREEDS_TABLE_NAME + " b ON b." + BaseColumns._ID
+            + " = p." + PetDbHelper.COLUMN_PET_BREED_ID;
+
+    // The next batch to push, in sequence order through the seq index.
+    private static final String SQL_SELECT_CHANGES = SQL_SELECT + " WHERE c."
+            + PetDbHelper.COLUMN_CHANGE_SEQ + " > ? ORDER BY c." + PetDbHelper.COLUMN_CHANGE_SEQ
+            + " LIMIT " + BATCH_SIZE;
+
+    private static final String SQL_SELECT_LOCAL = SQL_SELECT + " WHERE c."
+            + PetDbHelper.COLUMN_PET_SYNC_ID + " = ?";
+
+    private static final String SYNC_ID_SELECTION = PetDbHelper.COLUMN_PET_SYNC_ID + " = ?";
+
+    /**
+     * What a sync did so far. Filled in as it goes, so it is accurate even when the sync fails
+     * part way.
+     */
+    static class Result {
+        int pushed;
+        int pulled;
+        // Pets deleted locally because they were deleted on another device.
+        int deleted;
+    }
+
+    private final PetDbHelper mDbHelper;
+    private final Lock mDatabaseLock;
+    private final SyncHttpClient mClient;
+    // The database the sync started on, to notice a restore.
+    private SQLiteDatabase mDatabase;
+
+    /**
+     * Sync the given database, holding the given lock, the provider's read lock, whenever it
+     * is used.
+     */
+    PetSyncEngine(PetDbHelper dbHelper, Lock databaseLock, SyncHttpClient client) {
+        mDbHelper = dbHelper;
+        mDatabaseLock = databaseLock;
+        mClient = client;
+    }
+
+    /**
+     * Push local changes, then pull the server's. Run it off the main thread, one at a time.
+     */
+    void sync(Result result) throws IOException {
+        push(result);
+        pull(result);
+    }
+
+    private void push(Result result) throws IOException {
+        while (true) {
+            List<PetChange> batch;
+            mDatabaseLock.lock();
+            try {
+                SQLiteDatabase database = database();
+                long pushedSeq = DatabaseUtils.longForQuery(database, "SELECT "
+                        + PetDbHelper.COLUMN_SYNC_PUSHED_SEQ + " FROM "
+                        + PetDbHelper.SYNC_STATE_TABLE_NAME, null);
+                batch = readChanges(database, pushedSeq);
+            } finally {
+                mDatabaseLock.unlock();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            mClient.push(batch);
+            // A pet changed again since it was read has a higher seq by now, so it is pushed
+            // with the next batch or sync.
+            ContentValues state = new ContentValues(1);
+            state.put(PetDbHelper.COLUMN_SYNC_PUSHED_SEQ, batch.get(batch.size() - 1).seq);
+            mDatabaseLock.lock();
+            try {
+                database().update(PetDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+            } finally {
+                mDatabaseLock.unlock();
+            }
+            result.pushed += batch.size();
+            if (batch.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private static List<PetChange> readChanges(SQLiteDatabase database, long afterSeq) {
+        List<PetChange> changes = new ArrayList<>();
+        Cursor cursor = database.rawQuery(SQL_SELECT_CHANGES, new String[] { String.valueOf(afterSeq) });
+        try {
+            while (cursor.moveToNext()) {
+                PetChange change = new PetChange();
+                change.syncId = cursor.getString(COLUMN_SYNC_ID);
+                change.seq = cursor.getLong(COLUMN_SEQ);
+                change.deleted = cursor.getInt(COLUMN_DELETED) != 0;
+                if (change.deleted) {
+                    change.deletedAt = cursor.getLong(COLUMN_DELETED_AT);
+                } else {
+                    change.name = cursor.getString(COLUMN_NAME);
+                    change.nameAt = cursor.getLong(COLUMN_NAME_AT);
+                    change.breed = cursor.getString(COLUMN_BREED);
+                    change.breedAt = cursor.getLong(COLUMN_BREED_AT);
+                    change.gender = cursor.getInt(COLUMN_GENDER);
+                    change.genderAt = cursor.getLong(COLUMN_GENDER_AT);
+                    change.weight = cursor.getInt(COLUMN_WEIGHT);
+                    change.weightAt = cursor.getLong(COLUMN_WEIGHT_AT);
+                }
+                changes.add(change);
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    private void pull(Result result) throws IOException {
+        String cursor;
+        mDatabaseLock.lock();
+        try {
+            cursor = DatabaseUtils.stringForQuery(database(), "SELECT "
+                    + PetDbHelper.COLUMN_SYNC_PULL_CURSOR + " FROM "
+                    + PetDbHelper.SYNC_STATE_TABLE_NAME, null);
+        } finally {
+            mDatabaseLock.unlock();
+        }
+        while (true) {
+            SyncHttpClient.Pull pull = mClient.pull(cursor, BATCH_SIZE);
+            mDatabaseLock.lock();
+            try {
+                apply(database(), pull, result);
+            } finally {
+                mDatabaseLock.unlock();
+            }
+            cursor = pull.cursor;
+            if (!pull.more || pull.changes.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The database to sync, with the lock held. Fails if a restore has replaced the database
+     * the sync started on.
+     */
+    private SQLiteDatabase database() throws IOException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mDatabase == null) {
+            mDatabase = database;
+        } else if (database != mDatabase) {
+            throw new IOException("The database was restored during the sync");
+        }
+        return database;
+    }
+
+    /**
+     * Apply a page of pulled changes and save the server's new cursor, all in one transaction.
+     * The change log triggers are switched off meanwhile: pulled changes keep the change times
+     * they came with and are not pushed back.
+     */
+    private static void apply(SQLiteDatabase database, SyncHttpClient.Pull pull, Result result) {
+        int deleted = 0;
+        database.beginTransaction();
+        try {
+            setApplying(database, true);
+            BreedDictionary breeds = new BreedDictionary(database);
+            for (PetChange change : pull.changes) {
+                if (apply(database, breeds, change)) {
+                    deleted++;
+                }
+            }
+            ContentValues state = new ContentValues(1);
+            state.put(PetDbHelper.COLUMN_SYNC_PULL_CURSOR, pull.cursor);
+            database.update(PetDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+            setApplying(database, false);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        result.pulled += pull.changes.size();
+        result.deleted += deleted;
+    }
+
+    private static void setApplying(SQLiteDatabase database, boolean applying) {
+        ContentValues state = new ContentValues(1);
+        state.put(PetDbHelper.COLUMN_SYNC_APPLYING, applying ? 1 : 0);
+        database.update(PetDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+    }
+
+    /**
+     * Merge one pulled change into the database. Returns true if it deleted a local pet.
+     */
+    private static boolean apply(SQLiteDatabase database, BreedDictionary breeds, PetChange change) {
+        String[] syncIdArgs = { change.syncId };
+        Cursor local = database.rawQuery(SQL_SELECT_LOCAL, syncIdArgs);
+        try {
+            boolean known = local.moveToFirst();
+            if (known && local.getInt(COLUMN_DELETED) != 0) {
+                // Deleted here already; a delete wins over everything.
+                return false;
+            }
+            if (change.deleted) {
+                ContentValues tombstone = new ContentValues(4);
+                tombstone.put(PetDbHelper.COLUMN_PET_SYNC_ID, change.syncId);
+                tombstone.put(PetDbHelper.COLUMN_CHANGE_SEQ, 0);
+                tombstone.put(PetDbHelper.COLUMN_CHANGE_DELETED, 1);
+                tombstone.put(PetDbHelper.COLUMN_CHANGE_DELETED_AT, change.deletedAt);
+                if (known) {
+                    // Keeps the change times and seq the row already has.
+                    tombstone.remove(PetDbHelper.COLUMN_CHANGE_SEQ);
+                    database.update(PetDbHelper.CHANGES_TABLE_NAME, tombstone, SYNC_ID_SELECTION,
+                            syncIdArgs);
+                    return database.delete(PetEntry.TABLE_NAME, SYNC_ID_SELECTION, syncIdArgs) != 0;
+                }
+                database.insert(PetDbHelper.CHANGES_TABLE_NAME, null, tombstone);
+                return false;
+            }
+            if (!known || local.isNull(COLUMN_PET_ID)) {
+                insert(database, breeds, change);
+            } else {
+                merge(database, breeds, change, local);
+            }
+            return false;
+        } finally {
+            local.close();
+        }
+    }
+
+    /**
+     * Add a pet first created on another device, with the change times it came with. Seq 0
+     * keeps it out of the next push.
+     */
+    private static void insert(SQLiteDatabase database, BreedDictionary breeds, PetChange change) {
+        if (change.name == null || change.name.isEmpty() || !PetEntry.isValidGender(change.gender)
+                || change.weight < 0) {
+            Log.w(LOG_TAG, "Skipping invalid pet " + change.syncId + " from the server");
+            return;
+        }
+        ContentValues pet = new ContentValues(5);
+        pet.put(PetDbHelper.COLUMN_PET_SYNC_ID, change.syncId);
+        pet.put(PetEntry.COLUMN_PET_NAME, change.name);
+        pet.put(PetEntry.COLUMN_PET_BREED, change.breed);
+        pet.put(PetEntry.COLUMN_PET_GENDER, change.gender);
+        pet.put(PetEntry.COLUMN_PET_WEIGHT, change.weight);
+        database.insert(PetEntry.TABLE_NAME, null, breeds.encode(pet));
+
+        ContentValues log = new ContentValues(6);
+        log.put(PetDbHelper.COLUMN_PET_SYNC_ID, change.syncId);
+        log.put(PetDbHelper.COLUMN_CHANGE_SEQ, 0);
+        log.put(PetChange.changedAt(PetEntry.COLUMN_PET_NAME), change.nameAt);
+        log.put(PetChange.changedAt(PetEntry.COLUMN_PET_BREED), change.breedAt);
+        log.put(PetChange.changedAt(PetEntry.COLUMN_PET_GENDER), change.genderAt);
+        log.put(PetChange.changedAt(PetEntry.COLUMN_PET_WEIGHT), change.weightAt);
+        database.insertWithOnConflict(PetDbHelper.CHANGES_TABLE_NAME, null, log,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Take every column of the pulled change that wins over the local one. The local seq is
+     * left alone, so local changes not pushed yet are still pushed, now merged.
+     */
+    private static void merge(SQLiteDatabase database, BreedDictionary breeds, PetChange change,
+                              Cursor local) {
+        ContentValues pet = new ContentValues(4);
+        ContentValues log = new ContentValues(4);
+        if (change.name != null && !change.name.isEmpty()
+                && wins(change.nameAt, change.name, local.getLong(COLUMN_NAME_AT),
+                local.getString(COLUMN_NAME))) {
+            pet.put(PetEntry.COLUMN_PET_NAME, change.name);
+            log.put(PetChange.changedAt(PetEntry.COLUMN_PET_NAME), change.nameAt);
+        }
+        if (wins(change.breedAt, change.breed, local.getLong(COLUMN_BREED_AT),
+                local.getString(COLUMN_BREED))) {
+            pet.put(PetEntry.COLUMN_PET_BREED, change.breed);
+            log.put(PetChange.changedAt(PetEntry.COLUMN_PET_BREED), change.breedAt);
+        }
+        if (PetEntry.isValidGender(change.gender)
+                && wins(change.genderAt, change.gender, local.getLong(COLUMN_GENDER_AT),
+                local.getInt(COLUMN_GENDER))) {
+            pet.put(PetEntry.COLUMN_PET_GENDER, change.gender);
+            log.put(PetChange.changedAt(PetEntry.COLUMN_PET_GENDER), change.genderAt);
+        }
+        if (change.weight >= 0
+                && wins(change.weightAt, change.weight, local.getLong(COLUMN_WEIGHT_AT),
+                local.getInt(COLUMN_WEIGHT))) {
+            pet.put(PetEntry.COLUMN_PET_WEIGHT, change.weight);
+            log.put(PetChange.changedAt(PetEntry.COLUMN_PET_WEIGHT), change.weightAt);
+        }
+        if (pet.size() == 0) {
+            return;
+        }
+        String[] syncIdArgs = { change.syncId };
+        database.update(PetEntry.TABLE_NAME, breeds.encode(pet), SYNC_ID_SELECTION, syncIdArgs);
+        database.update(PetDbHelper.CHANGES_TABLE_NAME, log, SYNC_ID_SELECTION, syncIdArgs);
+    }
+
+    /**
+     * Whether the remote value of a column replaces the local one. Equal values never do, so
+     * applying a change twice changes nothing.
+     */
+    static boolean wins(long remoteAt, Comparable<?> remote, long localAt, Comparable<?> local) {
+        if (remoteAt != localAt) {
+            return remoteAt > localAt;
+        }
+        return compare(remote, local) > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable<?> a, Comparable<?> b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+}
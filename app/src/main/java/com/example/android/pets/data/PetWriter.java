@@ -0,0 +1,119 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs ContentResolver writes on a background thread and reports the result back on the main
+ * thread, so the UI never waits on the database. Writes run one at a time in the order they
+ * were made, even across activities.
+ */
+public class PetWriter {
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * The write threw, for example because the provider rejected the values, or an insert
+         * returned no uri. Nothing was written.
+         */
+        void onFailure(RuntimeException e);
+    }
+
+    private static final Executor WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver mResolver;
+
+    public PetWriter(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    public void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        execute(new Write<Uri>(callback) {
+            @Override
+            Uri write() {
+                Uri inserted = mResolver.insert(uri, values);
+                // The provider gives no uri when the row could not be inserted, and every caller
+                // would otherwise go on to use the missing row as if it had been.
+                if (inserted == null) {
+                    throw new SQLException("Failed to insert a row into " + uri);
+                }
+                return inserted;
+            }
+        });
+    }
+
+    public void update(final Uri uri, final ContentValues values, final String selection,
+                       final String[] selectionArgs, Callback<Integer> callback) {
+        execute(new Write<Integer>(callback) {
+            @Override
+            Integer write() {
+                return mResolver.update(uri, values, selection, selectionArgs);
+            }
+        });
+    }
+
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       Callback<Integer> callback) {
+        execute(new Write<Integer>(callback) {
+            @Override
+            Integer write() {
+                return mResolver.delete(uri, selection, selectionArgs);
+            }
+        });
+    }
+
+    private static <T> void execute(Write<T> write) {
+        WRITE_EXECUTOR.execute(write);
+    }
+
+    /**
+     * A single write, run on the write thread, whose outcome is posted to the callback.
+     */
+    private abstract static class Write<T> implements Runnable {
+        private final Callback<T> mCallback;
+
+        Write(Callback<T> callback) {
+            mCallback = callback;
+        }
+
+        abstract T write();
+
+        @Override
+        public void run() {
+            try {
+                final T result = write();
+                if (mCallback != null) {
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onSuccess(result);
+                        }
+                    });
+                }
+            } catch (final RuntimeException e) {
+                if (mCallback != null) {
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onFailure(e);
+                        }
+                    });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts, rows affected and latency histograms for {@link PetProvider}, per uri match and
+ * per operation. While disabled, recording costs one volatile read per call.
+ */
+class ProviderMetrics {
+
+    //Operations that are measured
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_UPDATE = 2;
+    static final int OP_DELETE = 3;
+    static final int OP_BULK_INSERT = 4;
+    static final int OP_APPLY_BATCH = 5;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "update", "delete", "bulk_insert", "apply_batch"
+    };
+
+    /**
+     * Number of latency buckets. Bucket 0 counts calls under 1 microsecond and bucket i counts
+     * calls from 2^(i-1) up to 2^i microseconds. The last bucket also takes everything slower.
+     */
+    static final int BUCKET_COUNT = 24;
+
+    private volatile boolean mEnabled;
+
+    // Keyed by (match << 4) | operation, so calls without a uri match (-1) still get a key.
+    private final ConcurrentHashMap<Integer, OperationStats> mStats = new ConcurrentHashMap<>();
+
+    private static class OperationStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    ProviderMetrics(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Start timing a call. Returns 0 while disabled, which makes the matching record() a no-op.
+     */
+    long start() {
+        // nanoTime() could in theory return 0, which would only lose that one sample.
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a call that started at the given time and touched the given number of rows.
+     */
+    void record(int match, int operation, long startNanos, long rows) {
+        if (startNanos == 0) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        Integer key = (match << 4) | operation;
+        OperationStats stats = mStats.get(key);
+        if (stats == null) {
+            OperationStats created = new OperationStats();
+            stats = mStats.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.calls.incrementAndGet();
+        stats.rows.addAndGet(rows);
+        stats.totalMicros.addAndGet(micros);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        stats.histogram.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+    }
+
+    void reset() {
+        mStats.clear();
+    }
+
+    /**
+     * Copy the current numbers into a Bundle with one entry per measured match and operation,
+     * keyed "<match name>/<operation>".
+     */
+    Bundle toBundle(SparseArray<String> matchNames) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(PetContract.KEY_METRICS_ENABLED, mEnabled);
+        for (Map.Entry<Integer, OperationStats> entry : mStats.entrySet()) {
+            int match = entry.getKey() >> 4;
+            int operation = entry.getKey() & 0xf;
+            OperationStats stats = entry.getValue();
+
+            Bundle values = new Bundle();
+            values.putLong(PetContract.KEY_METRICS_CALLS, stats.calls.get());
+            values.putLong(PetContract.KEY_METRICS_ROWS, stats.rows.get());
+            values.putLong(PetContract.KEY_METRICS_TOTAL_MICROS, stats.totalMicros.get());
+            long[] histogram = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                histogram[i] = stats.histogram.get(i);
+            }
+            values.putLongArray(PetContract.KEY_METRICS_LATENCY_HISTOGRAM, histogram);
+            bundle.putBundle(matchNames.get(match, String.valueOf(match)) + "/"
+                    + OPERATION_NAMES[operation], values);
+        }
+        return bundle;
+    }
+
+    /**
+     * The same numbers as {@link #toBundle(SparseArray)} as a JSON object, so results from
+     * different runs and releases can be stored and compared by scripts.
+     */
+    String toJson(SparseArray<String> matchNames) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put(PetContract.KEY_METRICS_ENABLED, mEnabled);
+            for (Map.Entry<Integer, OperationStats> entry : mStats.entrySet()) {
+                int match = entry.getKey() >> 4;
+                int operation = entry.getKey() & 0xf;
+                OperationStats stats = entry.getValue();
+
+                JSONObject values = new JSONObject();
+                values.put(PetContract.KEY_METRICS_CALLS, stats.calls.get());
+                values.put(PetContract.KEY_METRICS_ROWS, stats.rows.get());
+                values.put(PetContract.KEY_METRICS_TOTAL_MICROS, stats.totalMicros.get());
+                JSONArray histogram = new JSONArray();
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    histogram.put(stats.histogram.get(i));
+                }
+                values.put(PetContract.KEY_METRICS_LATENCY_HISTOGRAM, histogram);
+                json.put(matchNames.get(match, String.valueOf(match)) + "/"
+                        + OPERATION_NAMES[operation], values);
+            }
+            return json.toString();
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never recorded.
+            throw new IllegalStateException(e);
+        }
+    }
+}
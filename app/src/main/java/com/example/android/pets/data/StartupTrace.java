@@ -0,0 +1,111 @@
+package com.example.android.pets.data;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the steps of a cold start, in milliseconds since the process started: the provider
+ * being created, the database being opened and the first pets being bound to the list. Each
+ * step is recorded once per process, and a warning is logged for any step over its budget.
+ * <p>
+ * Before API 24 the process start time is not available, so times are measured from when this
+ * class was first used, which is at the latest when the provider is created.
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    //Startup steps, also the keys of toBundle()
+    public static final String PROVIDER_CREATED = "provider_created";
+    public static final String DATABASE_OPEN = "database_open";
+    public static final String FIRST_ROWS_BOUND = "first_rows_bound";
+
+    //Budget for each step, in milliseconds since the process started.
+    private static final long PROVIDER_CREATED_BUDGET_MS = 300;
+    private static final long DATABASE_OPEN_BUDGET_MS = 500;
+    private static final long FIRST_ROWS_BOUND_BUDGET_MS = 1000;
+
+    private static final long sStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? Process.getStartElapsedRealtime()
+            : SystemClock.elapsedRealtime();
+
+    // Recorded steps in the order they happened.
+    private static final Map<String, Long> sMarks = new LinkedHashMap<>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Record that the given step has been reached, unless it already has been.
+     */
+    public static void mark(String step) {
+        long elapsed = SystemClock.elapsedRealtime() - sStart;
+        synchronized (sMarks) {
+            if (sMarks.containsKey(step)) {
+                return;
+            }
+            sMarks.put(step, elapsed);
+        }
+        if (elapsed > budget(step)) {
+            Log.w(LOG_TAG, overBudget(step, elapsed));
+        } else {
+            Log.i(LOG_TAG, step + " after " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * The budget for the given step in milliseconds, for checking the values of toBundle().
+     */
+    public static long budget(String step) {
+        switch (step) {
+            case PROVIDER_CREATED:
+                return PROVIDER_CREATED_BUDGET_MS;
+            case DATABASE_OPEN:
+                return DATABASE_OPEN_BUDGET_MS;
+            case FIRST_ROWS_BOUND:
+                return FIRST_ROWS_BOUND_BUDGET_MS;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * One message for each step in the given timings, as returned by toBundle(), that took
+     * longer than its budget. Empty when every step is within budget.
+     */
+    public static List<String> overBudget(Bundle marks) {
+        List<String> over = new ArrayList<>();
+        for (String step : marks.keySet()) {
+            long elapsed = marks.getLong(step);
+            if (elapsed > budget(step)) {
+                over.add(overBudget(step, elapsed));
+            }
+        }
+        return over;
+    }
+
+    private static String overBudget(String step, long elapsed) {
+        return step + " took " + elapsed + "ms, over its budget of " + budget(step) + "ms";
+    }
+
+    /**
+     * The steps recorded so far, with the milliseconds since start under each step's name.
+     */
+    public static Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        synchronized (sMarks) {
+            for (Map.Entry<String, Long> mark : sMarks.entrySet()) {
+                bundle.putLong(mark.getKey(), mark.getValue());
+            }
+        }
+        return bundle;
+    }
+}
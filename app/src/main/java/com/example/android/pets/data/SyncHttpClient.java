@@ -0,0 +1,178 @@
+package com.example.android.pets.data;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Talks to the shelter sync server. Both directions use a single resource, {@code changes},
+ * under the endpoint given, with gzip-compressed JSON bodies:
+ * <ul>
+ * <li>{@code POST <endpoint>/changes} with {@code {"changes": [...]}} pushes local changes.
+ * Any 2xx response means the server has stored them. Pushing the same change twice is
+ * harmless, since the server merges changes the same way {@link PetSyncEngine} does.</li>
+ * <li>{@code GET <endpoint>/changes?since=<cursor>&limit=<n>} pulls up to n changes made
+ * after the cursor, which is left out on the first pull. The response is
+ * {@code {"changes": [...], "cursor": "...", "more": true}}, where the cursor is passed back
+ * on the next pull and more says whether there are changes left.</li>
+ * </ul>
+ * Changes are in the format of {@link PetChange}. A local mock server only has to implement
+ * these two calls.
+ */
+class SyncHttpClient {
+
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_MORE = "more";
+
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * One page of changes from the server.
+     */
+    static class Pull {
+        final List<PetChange> changes;
+        final String cursor;
+        final boolean more;
+
+        Pull(List<PetChange> changes, String cursor, boolean more) {
+            this.changes = changes;
+            this.cursor = cursor;
+            this.more = more;
+        }
+    }
+
+    private final String mChangesUrl;
+
+    SyncHttpClient(String endpoint) {
+        mChangesUrl = (endpoint.endsWith("/") ? endpoint : endpoint + "/") + KEY_CHANGES;
+    }
+
+    /**
+     * Send the given changes to the server, streamed through gzip as they are written.
+     */
+    void push(List<PetChange> changes) throws IOException {
+        HttpURLConnection connection = open(new URL(mChangesUrl));
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            JsonWriter json = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE)), "UTF-8"));
+            try {
+                json.beginObject();
+                json.name(KEY_CHANGES).beginArray();
+                for (PetChange change : changes) {
+                    change.writeTo(json);
+                }
+                json.endArray();
+                json.endObject();
+            } finally {
+                // Also finishes the gzip stream.
+                json.close();
+            }
+            // The body is not needed, but reading it lets the connection be reused.
+            InputStream in = responseBody(connection);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (in.read(buffer) != -1) {
+                    // Drain
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Fetch up to limit changes made after the given cursor, or from the start if it is null.
+     */
+    Pull pull(String cursor, int limit) throws IOException {
+        String url = mChangesUrl + "?limit=" + limit;
+        if (cursor != null) {
+            url += "&since=" + URLEncoder.encode(cursor, "UTF-8");
+        }
+        HttpURLConnection connection = open(new URL(url));
+        try {
+            JsonReader json = new JsonReader(new InputStreamReader(responseBody(connection), "UTF-8"));
+            try {
+                List<PetChange> changes = new ArrayList<>();
+                String nextCursor = cursor;
+                boolean more = false;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String key = json.nextName();
+                    if (json.peek() == JsonToken.NULL) {
+                        json.nextNull();
+                    } else if (KEY_CHANGES.equals(key)) {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            changes.add(PetChange.readFrom(json));
+                        }
+                        json.endArray();
+                    } else if (KEY_CURSOR.equals(key)) {
+                        nextCursor = json.nextString();
+                    } else if (KEY_MORE.equals(key)) {
+                        more = json.nextBoolean();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                return new Pull(changes, nextCursor, more);
+            } catch (IllegalStateException | NumberFormatException e) {
+                // JsonReader reports malformed input this way.
+                throw new IOException("Malformed response from " + url, e);
+            } finally {
+                json.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Asked for explicitly, so the response has to be unzipped here.
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    /**
+     * Check the response code and return the body, unzipped if the server compressed it.
+     */
+    private static InputStream responseBody(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code < 200 || code >= 300) {
+            throw new IOException("Sync server answered " + code + " for " + connection.getURL());
+        }
+        InputStream in = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+}
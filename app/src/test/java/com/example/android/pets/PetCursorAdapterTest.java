@@ -0,0 +1,214 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetCursorAdapterTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private PetCursorAdapter mAdapter;
+    // What the adapter told its observers, in order.
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        mAdapter = new PetCursorAdapter(RuntimeEnvironment.application, null);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mEvents.add("changed all");
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                mEvents.add("changed " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mEvents.add("inserted " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mEvents.add("removed " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mEvents.add("moved " + fromPosition + ">" + toPosition);
+            }
+        });
+        PendingPetEdits.get().addListener(mAdapter);
+    }
+
+    @After
+    public void tearDown() {
+        PendingPetEdits edits = PendingPetEdits.get();
+        edits.removeListener(mAdapter);
+        for (PendingPetEdits.Edit edit : edits.snapshot()) {
+            edits.revert(edit);
+        }
+    }
+
+    @Test
+    public void onlyTheChangedRowIsRebound() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 2, "Rex", null, null },
+                new Object[] { 3, "Kit", "Tabby", null }));
+
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 2, "Rex", "Terrier", null },
+                new Object[] { 3, "Kit", "Tabby", null }));
+
+        assertEquals(Arrays.asList("changed 1+1"), mEvents);
+    }
+
+    @Test
+    public void anInsertedRowIsTheOnlyInsertion() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 3, "Kit", "Tabby", null }));
+
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 2, "Rex", null, null },
+                new Object[] { 3, "Kit", "Tabby", null }));
+
+        assertEquals(Arrays.asList("inserted 1+1"), mEvents);
+    }
+
+    @Test
+    public void pagesAreShownInOrder() throws InterruptedException {
+        mAdapter.swapCursors(pets(new Object[] { 1, "Tom", "Tabby", null }),
+                pets(new Object[] { 2, "Rex", null, null }, new Object[] { 3, "Kit", null, null }));
+        awaitEvents();
+
+        assertEquals(3, mAdapter.getItemCount());
+        assertEquals(1, mAdapter.getItemId(0));
+        assertEquals(2, mAdapter.getItemId(1));
+        assertEquals(3, mAdapter.getItemId(2));
+    }
+
+    @Test
+    public void pendingEditIsShownUntilReverted() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 2, "Rex", null, null }));
+        PendingPetEdits edits = PendingPetEdits.get();
+
+        PendingPetEdits.Edit edit = edits.update(2, "Max", null);
+        awaitEvents();
+        assertEquals(Arrays.asList("changed 1+1"), mEvents);
+        mEvents.clear();
+
+        edits.revert(edit);
+        awaitEvents();
+        assertEquals(Arrays.asList("changed 1+1"), mEvents);
+    }
+
+    @Test
+    public void pendingDeleteAndInsertAreShown() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Kit", "Tabby", null },
+                new Object[] { 2, "Tom", null, null }));
+        PendingPetEdits edits = PendingPetEdits.get();
+
+        edits.delete(1);
+        awaitEvents();
+        assertEquals(Arrays.asList("removed 0+1"), mEvents);
+        mEvents.clear();
+
+        // Goes where its name sorts.
+        PendingPetEdits.Edit inserted = edits.insert("Rex", null);
+        awaitEvents();
+        assertEquals(Arrays.asList("inserted 0+1"), mEvents);
+        assertEquals(inserted.id, mAdapter.getItemId(0));
+    }
+
+    @Test
+    public void pendingDeleteAllEmptiesTheListUntilReverted() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Kit", "Tabby", null },
+                new Object[] { 2, "Tom", null, null }));
+        PendingPetEdits edits = PendingPetEdits.get();
+
+        PendingPetEdits.Edit edit = edits.deleteAll();
+        awaitEvents();
+        assertEquals(0, mAdapter.getItemCount());
+        mEvents.clear();
+
+        edits.revert(edit);
+        awaitEvents();
+        assertEquals(2, mAdapter.getItemCount());
+    }
+
+    @Test
+    public void committedEditIsDroppedOnceRowsLoadedAfterIt() throws InterruptedException {
+        showAndWait(pets(new Object[] { 1, "Tom", "Tabby", null },
+                new Object[] { 2, "Rex", null, null }));
+        PendingPetEdits edits = PendingPetEdits.get();
+        PendingPetEdits.Edit edit = edits.delete(2);
+        awaitEvents();
+        mEvents.clear();
+
+        edits.commit(edit);
+        // Rows loaded while the delete was still running keep it applied.
+        assertEquals(1, edits.snapshot().size());
+        SystemClock.sleep(1);
+
+        // Also changes Tom, so the adapter has something to report.
+        showAndWait(pets(new Object[] { 1, "Tom", "Persian", null }));
+        assertTrue(edits.snapshot().isEmpty());
+    }
+
+    /**
+     * Show the given rows and wait for the adapter to report them, then forget what it
+     * reported.
+     */
+    private void showAndWait(Cursor cursor) throws InterruptedException {
+        mAdapter.swapCursor(cursor);
+        awaitEvents();
+        mEvents.clear();
+    }
+
+    /**
+     * Run the main looper until the adapter has told its observers about the last swap. The
+     * diff runs on the adapter's own thread and posts its result back to the main looper.
+     */
+    private void awaitEvents() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mEvents.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        assertTrue("The adapter never reported the new rows", !mEvents.isEmpty());
+    }
+
+    private static Cursor pets(Object[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(PetEntry.SUMMARY_PROJECTION);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
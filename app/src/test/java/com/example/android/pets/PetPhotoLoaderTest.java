@@ -0,0 +1,125 @@
+package com.example.android.pets;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.support.media.ExifInterface;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetPhotoLoaderTest {
+
+    private static final int THUMBNAIL_BYTES = 100;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "thumbnails-test");
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        assertTrue(mDirectory.isDirectory() || mDirectory.mkdirs());
+    }
+
+    @Test
+    public void thumbnailKeyChangesWithTheSizeAndThePhoto() {
+        String key = PetPhotoLoader.thumbnailKey(96, "a.jpg");
+
+        assertEquals(key, PetPhotoLoader.thumbnailKey(96, "a.jpg"));
+        assertFalse(key.equals(PetPhotoLoader.thumbnailKey(48, "a.jpg")));
+        // A replaced photo has a new name, so its old thumbnails are never found again.
+        assertFalse(key.equals(PetPhotoLoader.thumbnailKey(96, "b.jpg")));
+        // Used as a file name in the disk cache.
+        assertEquals(-1, key.indexOf(File.separatorChar));
+    }
+
+    @Test
+    public void trimDeletesTheLeastRecentlyUsedThumbnailsFirst() throws IOException {
+        long now = System.currentTimeMillis();
+        // Written oldest first; the last one was used a moment ago.
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = thumbnail("96_" + i + ".jpg", now - (files.length - i) * 60 * 1000);
+        }
+
+        long left = PetPhotoLoader.trim(files.clone(), 4 * THUMBNAIL_BYTES,
+                3 * THUMBNAIL_BYTES - 1);
+
+        assertEquals(2 * THUMBNAIL_BYTES, left);
+        assertFalse(files[0].exists());
+        assertFalse(files[1].exists());
+        assertTrue(files[2].exists());
+        assertTrue(files[3].exists());
+    }
+
+    @Test
+    public void trimLeavesACacheUnderItsTargetAlone() throws IOException {
+        File[] files = { thumbnail("96_a.jpg", System.currentTimeMillis()) };
+
+        assertEquals(THUMBNAIL_BYTES, PetPhotoLoader.trim(files, THUMBNAIL_BYTES,
+                THUMBNAIL_BYTES));
+        assertTrue(files[0].exists());
+    }
+
+    @Test
+    public void uprightImagesAreNotTransformed() {
+        assertNull(PetPhotoLoader.orientationMatrix(ExifInterface.ORIENTATION_NORMAL));
+        assertNull(PetPhotoLoader.orientationMatrix(ExifInterface.ORIENTATION_UNDEFINED));
+    }
+
+    @Test
+    public void sidewaysImagesSwapWidthAndHeight() {
+        for (int orientation : new int[] { ExifInterface.ORIENTATION_ROTATE_90,
+                ExifInterface.ORIENTATION_ROTATE_270, ExifInterface.ORIENTATION_TRANSPOSE,
+                ExifInterface.ORIENTATION_TRANSVERSE }) {
+            RectF upright = map(orientation, new RectF(0, 0, 4, 2));
+            assertEquals(2, upright.width(), 0.001f);
+            assertEquals(4, upright.height(), 0.001f);
+        }
+        for (int orientation : new int[] { ExifInterface.ORIENTATION_ROTATE_180,
+                ExifInterface.ORIENTATION_FLIP_HORIZONTAL,
+                ExifInterface.ORIENTATION_FLIP_VERTICAL }) {
+            RectF upright = map(orientation, new RectF(0, 0, 4, 2));
+            assertEquals(4, upright.width(), 0.001f);
+            assertEquals(2, upright.height(), 0.001f);
+        }
+    }
+
+    private static RectF map(int orientation, RectF rect) {
+        Matrix matrix = PetPhotoLoader.orientationMatrix(orientation);
+        RectF mapped = new RectF();
+        matrix.mapRect(mapped, rect);
+        return mapped;
+    }
+
+    private File thumbnail(String name, long lastUsed) throws IOException {
+        File file = new File(mDirectory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[THUMBNAIL_BYTES]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastUsed));
+        return file;
+    }
+}
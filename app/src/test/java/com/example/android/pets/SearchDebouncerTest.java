@@ -0,0 +1,71 @@
+package com.example.android.pets;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SearchDebouncerTest {
+
+    private static final long DELAY_MS = 300;
+    // Faster than the delay, as when typing.
+    private static final long KEYSTROKE_MS = 50;
+
+    private SearchDebouncer mDebouncer;
+    // Every search the debouncer asked for, in order.
+    private final List<String> mSearches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mDebouncer = new SearchDebouncer(DELAY_MS, new SearchDebouncer.Listener() {
+            @Override
+            public void onSearch(String text) {
+                mSearches.add(text);
+            }
+        });
+    }
+
+    @Test
+    public void burstOfKeystrokesRunsOneSearch() {
+        String text = "";
+        for (int i = 0; i < 20; i++) {
+            text += (char) ('a' + i);
+            mDebouncer.onTextChanged(text);
+            ShadowLooper.idleMainLooper(KEYSTROKE_MS);
+        }
+        assertEquals(Collections.<String>emptyList(), mSearches);
+
+        ShadowLooper.idleMainLooper(DELAY_MS);
+        assertEquals(Arrays.asList(text), mSearches);
+    }
+
+    @Test
+    public void submitSearchesAtOnceAndDropsThePendingSearch() {
+        mDebouncer.onTextChanged("To");
+        mDebouncer.submit("Tom");
+        assertEquals(Arrays.asList("Tom"), mSearches);
+
+        ShadowLooper.idleMainLooper(DELAY_MS);
+        assertEquals(Arrays.asList("Tom"), mSearches);
+    }
+
+    @Test
+    public void cancelledSearchNeverRuns() {
+        mDebouncer.onTextChanged("Tom");
+        mDebouncer.cancel();
+
+        ShadowLooper.idleMainLooper(DELAY_MS);
+        assertEquals(Collections.<String>emptyList(), mSearches);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetCursorTest {
+
+    private ContentResolver mResolver;
+    private long mTomId;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        Uri tom = mResolver.insert(PetEntry.CONTENT_URI,
+                new Pet("Tom", "Tabby", PetEntry.GENDER_MALE, 7).toContentValues());
+        mTomId = ContentUris.parseId(tom);
+    }
+
+    @Test
+    public void everyColumnIsReadFromAFullQuery() {
+        PetCursor cursor = query(null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            Pet pet = cursor.getPet();
+            assertEquals(mTomId, pet.getId());
+            assertEquals("Tom", pet.getName());
+            assertEquals("Tabby", pet.getBreed());
+            assertEquals(PetEntry.GENDER_MALE, pet.getGender());
+            assertEquals(7, pet.getWeight());
+            // No photo has been written for this pet.
+            assertNull(pet.getPhoto());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void columnsAreFoundByNameInAnyOrder() {
+        PetCursor cursor = query(new String[] { PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_BREED, PetEntry._ID, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_NAME });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mTomId, cursor.getPetId());
+            assertEquals("Tom", cursor.getName());
+            assertEquals("Tabby", cursor.getBreed());
+            assertEquals(PetEntry.GENDER_MALE, cursor.getGender());
+            assertEquals(7, cursor.getWeight());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void columnsMissingFromTheProjectionReadAsDefaults() {
+        PetCursor cursor = query(new String[] { PetEntry.COLUMN_PET_NAME });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Tom", cursor.getName());
+            assertEquals(0, cursor.getPetId());
+            assertNull(cursor.getBreed());
+            assertEquals(PetEntry.GENDER_UNKNOWN, cursor.getGender());
+            assertEquals(0, cursor.getWeight());
+            assertNull(cursor.getPhoto());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void nullValuesReadAsNullOrZero() {
+        MatrixCursor rows = new MatrixCursor(new String[] { PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO });
+        rows.addRow(new Object[] { 3, null, null, null, null, null });
+        PetCursor cursor = new PetCursor(rows);
+        try {
+            assertTrue(cursor.moveToFirst());
+            Pet pet = cursor.getPet();
+            assertEquals(3, pet.getId());
+            assertNull(pet.getName());
+            assertNull(pet.getBreed());
+            assertEquals(PetEntry.GENDER_UNKNOWN, pet.getGender());
+            assertEquals(0, pet.getWeight());
+            assertNull(pet.getPhoto());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void readPetReusesTheGivenInstanceForEveryRow() {
+        mResolver.insert(PetEntry.CONTENT_URI,
+                new Pet("Rex", "Boxer", PetEntry.GENDER_FEMALE, 20).toContentValues());
+        PetCursor cursor = new PetCursor(mResolver.query(PetEntry.CONTENT_URI, null, null, null,
+                PetEntry._ID));
+        try {
+            Pet pet = new Pet();
+            assertTrue(cursor.moveToNext());
+            assertSame(pet, cursor.readPet(pet));
+            assertEquals("Tom", pet.getName());
+            assertTrue(cursor.moveToNext());
+            assertSame(pet, cursor.readPet(pet));
+            assertEquals("Rex", pet.getName());
+            assertEquals("Boxer", pet.getBreed());
+            assertEquals(PetEntry.GENDER_FEMALE, pet.getGender());
+            assertEquals(20, pet.getWeight());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private PetCursor query(String[] projection) {
+        return new PetCursor(mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                mTomId), projection, null, null, null));
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetDbHelperTest {
+
+    // The pets table as version 1 of the app created it. Never change this.
+    private static final String SQL_CREATE_V1 = "CREATE TABLE pets ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "name TEXT NOT NULL,"
+            + "breed TEXT,"
+            + "gender INTEGER NOT NULL,"
+            + "weight INTEGER NOT NULL DEFAULT 0);";
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsPets() {
+        createVersion1Database();
+
+        mDbHelper = new PetDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor cursor = db.query(PetDbHelper.PET_DETAILS_VIEW_NAME, new String[] {
+                PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT },
+                null, null, null, null, PetEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Tom", cursor.getString(0));
+            assertEquals("Tabby", cursor.getString(1));
+            assertEquals(PetEntry.GENDER_MALE, cursor.getInt(2));
+            assertEquals(4, cursor.getInt(3));
+            cursor.moveToNext();
+            assertEquals("Rex", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+            cursor.moveToNext();
+            assertEquals("Tabby", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1FillsDerivedTables() {
+        createVersion1Database();
+
+        mDbHelper = new PetDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        // One row per distinct breed.
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, PetDbHelper.BREEDS_TABLE_NAME));
+        assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT " + PetDbHelper.COLUMN_STATS_COUNT
+                + " FROM " + PetDbHelper.BREED_STATS_TABLE_NAME + " WHERE "
+                + PetEntry.COLUMN_PET_BREED + " = 'Tabby'", null));
+        assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                + PetDbHelper.SEARCH_TABLE_NAME + " WHERE " + PetDbHelper.SEARCH_TABLE_NAME
+                + " MATCH 'tab*'", null));
+        // Every existing pet is waiting to be pushed.
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, PetDbHelper.CHANGES_TABLE_NAME));
+        // The AUTOINCREMENT counter survives the rebuild of the pets table.
+        assertEquals(3, DatabaseUtils.longForQuery(db,
+                "SELECT seq FROM sqlite_sequence WHERE name = 'pets'", null));
+    }
+
+    @Test
+    public void upgradeRewritesPetsAcrossChunks() {
+        createVersion1Database();
+        SQLiteDatabase v1 = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            // Enough pets for several chunks, with a last chunk that is only partly full.
+            v1.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < "
+                    + (2 * PetDbHelper.MIGRATION_CHUNK_ROWS) + ") INSERT INTO pets "
+                    + "(name, breed, gender, weight) SELECT 'Pet ' || i, 'Tabby', 0, 1 FROM n");
+        } finally {
+            v1.close();
+        }
+        long pets = 3 + 2 * PetDbHelper.MIGRATION_CHUNK_ROWS;
+
+        mDbHelper = new PetDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        assertEquals(pets, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+        assertEquals(pets - 1, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME,
+                PetDbHelper.COLUMN_PET_BREED_ID + " IS NOT NULL"));
+        assertEquals(pets, DatabaseUtils.longForQuery(db, "SELECT COUNT(DISTINCT "
+                + PetDbHelper.COLUMN_PET_SYNC_ID + ") FROM " + PetEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void freshInstallMatchesUpgradedSchema() {
+        mDbHelper = new PetDbHelper(mContext);
+        List<String> fresh = schema(mDbHelper.getReadableDatabase());
+        mDbHelper.close();
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+
+        createVersion1Database();
+        mDbHelper = new PetDbHelper(mContext);
+        List<String> upgraded = schema(mDbHelper.getReadableDatabase());
+
+        assertEquals(fresh, upgraded);
+    }
+
+    @Test
+    public void upgradedIndexesAreUsed() {
+        createVersion1Database();
+        mDbHelper = new PetDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        String plan = QueryPlans.explain(db, "SELECT _id FROM pets WHERE gender = ? AND weight > ?",
+                "1", "3");
+        assertTrue(plan, plan.contains("pets_gender_weight_index"));
+
+        plan = QueryPlans.explain(db, "SELECT _id FROM pets WHERE breed_id = ?", "1");
+        assertTrue(plan, plan.contains("pets_breed_index"));
+
+        plan = QueryPlans.explain(db, "SELECT _id FROM pets WHERE sync_id = ?", "x");
+        assertTrue(plan, plan.contains("pets_sync_id_index"));
+
+        plan = QueryPlans.explain(db, "SELECT sync_id FROM pet_changes WHERE seq > ? ORDER BY seq",
+                "0");
+        assertTrue(plan, plan.contains("pet_changes_seq_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void pagesByNameAreReadInIndexOrder() {
+        createVersion1Database();
+        mDbHelper = new PetDbHelper(mContext);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String select = "SELECT _id, name, breed, photo FROM " + PetDbHelper.PET_DETAILS_VIEW_NAME;
+
+        String plan = QueryPlans.explain(db, select + " ORDER BY name, _id LIMIT 50");
+        assertTrue(plan, plan.contains("pets_name_id_breed_photo_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        plan = QueryPlans.explain(db, select + " WHERE name >= ? AND (name > ? OR _id > ?)"
+                + " ORDER BY name, _id LIMIT 50", "Rex", "Rex", "2");
+        assertTrue(plan, plan.contains("pets_name_id_breed_photo_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void searchTableHasPrefixIndexes() {
+        createVersion1Database();
+        mDbHelper = new PetDbHelper(mContext);
+
+        String sql = DatabaseUtils.stringForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT sql FROM sqlite_master WHERE name = ?",
+                new String[] { PetDbHelper.SEARCH_TABLE_NAME });
+        assertTrue(sql, sql.contains("prefix="));
+    }
+
+    @Test
+    public void freshInstallUsesIncrementalVacuum() {
+        mDbHelper = new PetDbHelper(mContext);
+
+        assertEquals(2, PetDbHelper.autoVacuum(mDbHelper.getWritableDatabase()));
+    }
+
+    @Test
+    public void upgradedDatabaseIsConvertedToIncrementalVacuum() {
+        createVersion1Database();
+        mDbHelper = new PetDbHelper(mContext);
+
+        mDbHelper.convertToIncrementalVacuum();
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(2, PetDbHelper.autoVacuum(db));
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+    }
+
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(SQL_CREATE_V1);
+            db.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES ('Tom', 'Tabby', 1, 4)");
+            db.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES ('Rex', NULL, 0, 10)");
+            db.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES ('Kit', 'Tabby', 2, 3)");
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * The type and name of every table, index, view and trigger, sorted by name.
+     */
+    private static List<String> schema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetDbHelperWalTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final ExecutorService mReader = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.shutdownNow();
+        mReader.shutdownNow();
+        mDbHelper.close();
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void databaseIsInWalMode() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    @Test
+    public void readProceedsWhileWriteTransactionIsOpen() throws Exception {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertPet(db, "Tom");
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Future<Void> write = mWriter.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                db.beginTransaction();
+                try {
+                    insertPet(db, "Rex");
+                    writing.countDown();
+                    // Keep the transaction open until the read is done.
+                    assertTrue(readDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return null;
+            }
+        });
+        assertTrue(writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Future<Long> read = mReader.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                        PetEntry.TABLE_NAME);
+            }
+        });
+        // Answered from the last committed state, without waiting for the writer. A read that
+        // blocked on the write lock would time out here.
+        assertEquals(1L, (long) read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        readDone.countDown();
+        write.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(2L, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void backupRestoresWritesStillInTheLog() throws Exception {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertPet(db, "Tom");
+        insertPet(db, "Rex");
+        // Nothing has been checkpointed, so both pets are only in the log.
+        assertTrue(new File(db.getPath() + "-wal").length() > 0);
+
+        // A reader keeps its snapshot open for the whole backup, which stops a checkpoint from
+        // emptying the log.
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch backedUp = new CountDownLatch(1);
+        Future<Void> read = mReader.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SQLiteDatabase reader = mDbHelper.getReadableDatabase();
+                reader.beginTransactionNonExclusive();
+                try {
+                    DatabaseUtils.queryNumEntries(reader, PetEntry.TABLE_NAME);
+                    reading.countDown();
+                    assertTrue(backedUp.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                } finally {
+                    reader.endTransaction();
+                }
+                return null;
+            }
+        });
+        assertTrue(reading.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        File backup = new File(mContext.getCacheDir(), "pets.backup");
+        FileOutputStream out = new FileOutputStream(backup);
+        try {
+            mDbHelper.backupTo(out);
+        } finally {
+            out.close();
+            backedUp.countDown();
+        }
+        read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        // Written after the backup, so the restore takes it away again.
+        insertPet(db, "Max");
+        InputStream in = new FileInputStream(backup);
+        try {
+            mDbHelper.installRestore(mDbHelper.receiveRestore(in));
+        } finally {
+            in.close();
+            backup.delete();
+        }
+
+        assertEquals(2L, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                PetEntry.TABLE_NAME));
+        assertEquals("Rex,Tom", DatabaseUtils.stringForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT group_concat(" + PetEntry.COLUMN_PET_NAME + ") FROM (SELECT "
+                        + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.TABLE_NAME + " ORDER BY "
+                        + PetEntry.COLUMN_PET_NAME + ")", null));
+    }
+
+    private static void insertPet(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 5);
+        db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+    }
+}
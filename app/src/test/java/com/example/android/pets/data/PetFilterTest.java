@@ -0,0 +1,98 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every shape PetProvider compiles a filter to is answered from the index it was
+ * written for, rather than by scanning the pets table.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetFilterTest {
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(PetDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void gendersAndWeightSeekTheGenderWeightIndex() {
+        String plan = explain(new PetFilter()
+                .genders(PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE)
+                .weightBetween(5, 20));
+        assertSeeks(plan, "pets_gender_weight_index");
+    }
+
+    @Test
+    public void gendersAloneSeekTheGenderWeightIndex() {
+        assertSeeks(explain(new PetFilter().genders(PetEntry.GENDER_MALE)),
+                "pets_gender_weight_index");
+    }
+
+    @Test
+    public void weightAloneSeeksTheGenderWeightIndex() {
+        assertSeeks(explain(new PetFilter().minWeight(10)), "pets_gender_weight_index");
+    }
+
+    @Test
+    public void exactBreedSeeksTheBreedIndex() {
+        assertSeeks(explain(new PetFilter().breedEquals("Tabby")), "pets_breed_index");
+    }
+
+    @Test
+    public void breedPrefixSeeksTheBreedIndex() {
+        assertSeeks(explain(new PetFilter().breedPrefix("Ta")), "pets_breed_index");
+    }
+
+    @Test
+    public void namePrefixSeeksTheNameIndex() {
+        assertSeeks(explain(new PetFilter().namePrefix("To")), "pets_name_id_breed_photo_index");
+    }
+
+    /**
+     * The plan of the list query with the given filter, as the provider would run it.
+     */
+    private String explain(PetFilter filter) {
+        List<String> args = new ArrayList<>();
+        String selection = PetProvider.compileFilter(filter, args);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        return QueryPlans.explain(db, "SELECT _id, name, breed, photo FROM "
+                + PetDbHelper.PET_DETAILS_VIEW_NAME + " WHERE " + selection,
+                args.toArray(new String[args.size()]));
+    }
+
+    private static void assertSeeks(String plan, String index) {
+        assertTrue(plan, plan.contains(index));
+        assertFalse(plan, plan.contains("SCAN"));
+    }
+}
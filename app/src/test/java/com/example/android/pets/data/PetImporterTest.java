@@ -0,0 +1,72 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetImporterTest {
+
+    private static final Uri FILE = Uri.parse("content://test/pets.json");
+
+    private ContentResolver mResolver;
+    // Records of the rows the importer skipped.
+    private final List<Integer> mFailedRecords = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void jsonValueOfTheWrongTypeFailsOnlyItsRow() throws IOException {
+        PetImporter.Result result = importJson("["
+                + "{\"name\": \"Tom\", \"gender\": \"male\", \"weight\": 4},"
+                + "{\"name\": [\"Rex\"], \"weight\": 3},"
+                + "{\"name\": \"Kit\", \"weight\": {\"kg\": 3}},"
+                + "{\"name\": \"Max\", \"breed\": true},"
+                + "{\"name\": \"Bo\", \"tags\": [\"small\"]}"
+                + "]");
+
+        assertEquals(5, result.rowsRead);
+        assertEquals(2, result.rowsImported);
+        assertEquals(3, result.rowsFailed);
+        assertEquals(Arrays.asList(2, 3, 4), mFailedRecords);
+    }
+
+    private PetImporter.Result importJson(String json) throws IOException {
+        shadowOf(mResolver).registerInputStream(FILE, new ByteArrayInputStream(json.getBytes("UTF-8")));
+        PetImporter importer = new PetImporter(mResolver, new PetImporter.Listener() {
+            @Override
+            public void onProgress(int rowsRead, int rowsImported, int rowsFailed) {
+            }
+
+            @Override
+            public void onRowError(int record, String message) {
+                mFailedRecords.add(record);
+            }
+        });
+        return importer.importFrom(FILE);
+    }
+}
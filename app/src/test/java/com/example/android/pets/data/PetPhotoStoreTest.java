@@ -0,0 +1,166 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetPhotoStoreTest {
+
+    private static final byte[] PHOTO = { 1, 2, 3, 4, 5 };
+    // Older than the sweep's grace period.
+    private static final long OLD_MS = 2 * 60 * 1000;
+
+    private File mDirectory;
+    private PetPhotoStore mStore;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "photos");
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mStore = new PetPhotoStore(mDirectory);
+    }
+
+    @Test
+    public void writeLeavesOnlyTheCompletePhoto() throws IOException {
+        String name = mStore.write(new ByteArrayInputStream(PHOTO));
+
+        assertTrue(name.endsWith(".jpg"));
+        assertEquals(Collections.singleton(name), names());
+        assertArrayEquals(PHOTO, read(mStore.file(name)));
+    }
+
+    @Test
+    public void everyWriteGetsANewName() throws IOException {
+        String first = mStore.write(new ByteArrayInputStream(PHOTO));
+        String second = mStore.write(new ByteArrayInputStream(PHOTO));
+
+        assertTrue(!first.equals(second));
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), names());
+    }
+
+    @Test
+    public void failedWriteLeavesNoFile() {
+        InputStream broken = new InputStream() {
+            private int mRead;
+
+            @Override
+            public int read() throws IOException {
+                if (mRead++ < 3) {
+                    return 1;
+                }
+                throw new IOException("Pipe closed");
+            }
+        };
+
+        try {
+            mStore.write(broken);
+            fail("A broken stream was stored");
+        } catch (IOException expected) {
+        }
+        assertEquals(Collections.<String>emptySet(), names());
+    }
+
+    @Test
+    public void emptyPhotoIsRefused() {
+        try {
+            mStore.write(new ByteArrayInputStream(new byte[0]));
+            fail("An empty photo was stored");
+        } catch (IOException expected) {
+        }
+        assertEquals(Collections.<String>emptySet(), names());
+    }
+
+    @Test
+    public void namesOutsideTheDirectoryAreRefused() {
+        for (String name : new String[] { null, "", "../pets.db", ".hidden", "a/b.jpg" }) {
+            try {
+                mStore.file(name);
+                fail("Accepted " + name);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void sweepDeletesOnlyOldFilesNoPetRefersTo() throws IOException {
+        long now = System.currentTimeMillis();
+        String live = mStore.write(new ByteArrayInputStream(PHOTO));
+        String orphan = mStore.write(new ByteArrayInputStream(PHOTO));
+        String young = mStore.write(new ByteArrayInputStream(PHOTO));
+        // What a write killed before its rename leaves behind.
+        File leftover = new File(mDirectory, "lost.jpg.tmp");
+        assertTrue(leftover.createNewFile());
+        for (File file : new File[] { mStore.file(live), mStore.file(orphan), leftover }) {
+            assertTrue(file.setLastModified(now - OLD_MS));
+        }
+
+        mStore.sweep(Collections.singleton(live), now);
+
+        assertEquals(new HashSet<>(Arrays.asList(live, young)), names());
+    }
+
+    @Test
+    public void deleteIgnoresMissingAndForeignNames() throws IOException {
+        String name = mStore.write(new ByteArrayInputStream(PHOTO));
+
+        mStore.delete(null);
+        mStore.delete("../" + name);
+        mStore.delete("missing.jpg");
+        assertEquals(Collections.singleton(name), names());
+
+        mStore.delete(name);
+        assertEquals(Collections.<String>emptySet(), names());
+    }
+
+    private Set<String> names() {
+        Set<String> names = new HashSet<>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures PetProvider's insert, bulk insert, point query, list query, update and delete
+ * workloads against a table of each size in the pets.benchmark.sizes system property, on the
+ * real SQLite that Robolectric runs. Each size writes the provider's metrics as JSON to
+ * pets.benchmark.output (build/benchmarks by default), one file per size, for comparing runs.
+ * Next to the metrics it records the size of the filled database and the time to read the
+ * whole list, breeds included, which are what storing breeds by id trades against each other.
+ * <p>
+ * Skipped unless sizes are given, for example:
+ * <pre>./gradlew testDebugUnitTest --tests '*PetProviderBenchmark' -Ppets.benchmark.sizes=1000,100000,1000000</pre>
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetProviderBenchmark {
+
+    private static final String PROPERTY_SIZES = "pets.benchmark.sizes";
+    private static final String PROPERTY_OUTPUT = "pets.benchmark.output";
+
+    // Calls made by each workload, whatever the table size.
+    private static final int OPERATIONS = 1000;
+    // Rows per bulk insert, both while filling the table and in the bulk insert workload.
+    private static final int BATCH_SIZE = 1000;
+    private static final int BULK_INSERTS = 10;
+    private static final int PAGE_SIZE = 50;
+    // Full reads of the list, the fastest of which is reported.
+    private static final int FULL_SCANS = 5;
+
+    //Keys added to the metrics JSON
+    private static final String KEY_DATABASE_BYTES = "database_bytes";
+    private static final String KEY_FULL_SCAN_MICROS = "full_scan_micros";
+
+    private static final String[] NAMES = { "Bella", "Charlie", "Luna", "Max", "Milo", "Rex",
+            "Simba", "Tom", "Toto", "Willow" };
+    private static final String[] BREEDS = { "Beagle", "Bengal", "Boxer", "Collie", "Husky",
+            "Persian", "Poodle", "Siamese", "Tabby", "Terrier" };
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static Collection<Object[]> sizes() {
+        List<Object[]> sizes = new ArrayList<>();
+        String property = System.getProperty(PROPERTY_SIZES);
+        if (property == null || property.trim().isEmpty()) {
+            // A single run that skips itself, so the runner has something to report.
+            sizes.add(new Object[] { 0 });
+            return sizes;
+        }
+        for (String size : property.split(",")) {
+            sizes.add(new Object[] { Integer.parseInt(size.trim()) });
+        }
+        return sizes;
+    }
+
+    private final int mSize;
+    // Seeded, so every run does the same work.
+    private final Random mRandom = new Random(42);
+    private ContentResolver mResolver;
+
+    public PetProviderBenchmark(int size) {
+        mSize = size;
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Set " + PROPERTY_SIZES + " to run the benchmark", mSize > 0);
+        Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void run() throws IOException, JSONException {
+        fill();
+        long databaseBytes = databaseBytes();
+        long fullScanMicros = fullScan();
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_RESET_METRICS, null, null);
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_METRICS_ENABLED, "true", null);
+
+        insert();
+        bulkInsert();
+        pointQuery();
+        listQuery();
+        update();
+        delete();
+
+        JSONObject json = new JSONObject(mResolver.call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_GET_METRICS_JSON, null, null)
+                .getString(PetContract.KEY_METRICS_JSON));
+        json.put(KEY_DATABASE_BYTES, databaseBytes);
+        json.put(KEY_FULL_SCAN_MICROS, fullScanMicros);
+        write(json.toString());
+    }
+
+    /**
+     * Fill the table to the benchmark size, with the metrics off.
+     */
+    private void fill() {
+        for (int filled = 0; filled < mSize; filled += BATCH_SIZE) {
+            int rows = Math.min(BATCH_SIZE, mSize - filled);
+            assertEquals(rows, mResolver.bulkInsert(PetEntry.CONTENT_URI, pets(rows)));
+        }
+    }
+
+    /**
+     * The size of the database file and its write-ahead log, right after filling.
+     */
+    private long databaseBytes() {
+        File database = RuntimeEnvironment.application.getDatabasePath(PetDbHelper.DATABASE_NAME);
+        return database.length() + new File(database.getPath() + "-wal").length();
+    }
+
+    /**
+     * Read every pet of the list with its breed, the fastest of a few runs, in microseconds.
+     * Done before the metrics are on, so it does not mix with the paged list queries.
+     */
+    private long fullScan() {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < FULL_SCANS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, PetEntry.SUMMARY_PROJECTION,
+                    null, null, null);
+            try {
+                int breedColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    cursor.getString(breedColumn);
+                    rows++;
+                }
+                assertEquals(mSize, rows);
+            } finally {
+                cursor.close();
+            }
+            fastest = Math.min(fastest, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+        return fastest;
+    }
+
+    private void insert() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            assertTrue(mResolver.insert(PetEntry.CONTENT_URI, pet()) != null);
+        }
+    }
+
+    private void bulkInsert() {
+        for (int i = 0; i < BULK_INSERTS; i++) {
+            mResolver.bulkInsert(PetEntry.CONTENT_URI, pets(BATCH_SIZE));
+        }
+    }
+
+    private void pointQuery() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            Cursor cursor = mResolver.query(randomPet(), null, null, null, null);
+            cursor.close();
+        }
+    }
+
+    /**
+     * Page through the list by name, the way the catalog does, starting over at the end.
+     */
+    private void listQuery() {
+        Uri page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, PAGE_SIZE);
+        for (int i = 0; i < OPERATIONS; i++) {
+            Cursor cursor = mResolver.query(page, PetEntry.SUMMARY_PROJECTION, null, null, null);
+            try {
+                if (cursor.getCount() < PAGE_SIZE || !cursor.moveToLast()) {
+                    page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, PAGE_SIZE);
+                    continue;
+                }
+                page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, PAGE_SIZE,
+                        cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private void update() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            mResolver.update(randomPet(), pet(), null, null);
+        }
+    }
+
+    private void delete() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            mResolver.delete(randomPet(), null, null);
+        }
+    }
+
+    private Uri randomPet() {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + mRandom.nextInt(mSize));
+    }
+
+    private ContentValues pet() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, NAMES[mRandom.nextInt(NAMES.length)] + " "
+                + mRandom.nextInt(mSize));
+        values.put(PetEntry.COLUMN_PET_BREED, BREEDS[mRandom.nextInt(BREEDS.length)]);
+        values.put(PetEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(60));
+        return values;
+    }
+
+    private ContentValues[] pets(int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            pets[i] = pet();
+        }
+        return pets;
+    }
+
+    private void write(String json) throws IOException {
+        File directory = new File(System.getProperty(PROPERTY_OUTPUT, "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, "provider-" + mSize + ".json")), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+}
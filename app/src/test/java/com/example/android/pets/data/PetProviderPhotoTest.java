@@ -0,0 +1,198 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the photo directory only ever holds the photos pets refer to: a stored photo
+ * replaces the old one, and the photos of deleted pets go, straight away for a single pet and
+ * through the background sweep otherwise.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetProviderPhotoTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    // Older than the sweep's grace period.
+    private static final long OLD_MS = 2 * 60 * 1000;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private File mDirectory;
+    private Uri mTom;
+    private Uri mRex;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mDirectory = new File(RuntimeEnvironment.application.getFilesDir(),
+                PetProvider.PHOTO_DIRECTORY);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mTom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        mRex = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Rex", "Boxer"));
+    }
+
+    @Test
+    public void storedPhotoReplacesTheOldOne() throws Exception {
+        String first = store(mTom);
+        String second = store(mTom);
+
+        assertEquals(second, photo(mTom));
+        assertEquals(Collections.singleton(second), names());
+        assertTrue(!first.equals(second));
+    }
+
+    @Test
+    public void photoForAMissingPetIsNotKept() throws Exception {
+        mProvider.storePhoto(ContentUris.parseId(mTom) + 100,
+                new ByteArrayInputStream(new byte[] { 1 }));
+
+        assertEquals(Collections.<String>emptySet(), names());
+    }
+
+    @Test
+    public void deletingAPetDeletesItsPhoto() throws Exception {
+        store(mTom);
+        String rex = store(mRex);
+
+        mResolver.delete(mTom, null, null);
+
+        assertEquals(Collections.singleton(rex), names());
+    }
+
+    @Test
+    public void deleteBySelectionSweepsThePhotos() throws Exception {
+        String tom = store(mTom);
+        String rex = store(mRex);
+        age();
+
+        mResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + " = ?",
+                new String[] { "Tom" });
+
+        awaitNames(Collections.singleton(rex));
+        assertNull(photo(mTom));
+        assertTrue(!names().contains(tom));
+    }
+
+    @Test
+    public void purgeSweepsThePhotos() throws Exception {
+        store(mTom);
+        store(mRex);
+        age();
+
+        assertEquals(2, mResolver.delete(PetEntry.PURGE_URI, null, null));
+
+        awaitNames(Collections.<String>emptySet());
+    }
+
+    @Test
+    public void restoreSweepsPhotosThePetsInTheBackupDoNotHave() throws Exception {
+        String tom = store(mTom);
+        File backup = new File(RuntimeEnvironment.application.getCacheDir(), "pets.backup");
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application);
+        FileOutputStream out = new FileOutputStream(backup);
+        try {
+            helper.backupTo(out);
+        } finally {
+            out.close();
+            helper.close();
+        }
+        String rex = store(mRex);
+        assertNotNull(rex);
+        age();
+
+        InputStream in = new FileInputStream(backup);
+        try {
+            mProvider.restore(in);
+        } finally {
+            in.close();
+            backup.delete();
+        }
+
+        awaitNames(Collections.singleton(tom));
+        assertNull(photo(mRex));
+    }
+
+    private String store(Uri pet) throws Exception {
+        mProvider.storePhoto(ContentUris.parseId(pet),
+                new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+        return photo(pet);
+    }
+
+    private String photo(Uri pet) {
+        Cursor cursor = mResolver.query(pet, new String[] { PetEntry.COLUMN_PET_PHOTO }, null,
+                null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Make every photo old enough to be swept.
+     */
+    private void age() {
+        long old = System.currentTimeMillis() - OLD_MS;
+        for (File file : mDirectory.listFiles()) {
+            assertTrue(file.setLastModified(old));
+        }
+    }
+
+    private Set<String> names() {
+        Set<String> names = new HashSet<>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Wait for the background sweep to leave exactly the given photos.
+     */
+    private void awaitNames(Set<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!expected.equals(names()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, names());
+    }
+}
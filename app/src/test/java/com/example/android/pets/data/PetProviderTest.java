@@ -0,0 +1,203 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetProviderTest {
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void failedOperationRollsBackTheBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(pet("Tom", "Tabby")).build());
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(pet(null, "Tabby")).build());
+
+        try {
+            mProvider.applyBatch(operations);
+            fail("A pet without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void batchWithYieldPointsAppliesEveryOperation() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    .withValues(pet("Pet " + i, "Tabby")).withYieldAllowed(true).build());
+        }
+
+        assertEquals(10, mProvider.applyBatch(operations).length);
+        assertEquals(10, count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void pagesByNameNeitherSkipNorRepeatPetsWithTheSameName() {
+        // Runs of equal names that straddle every page boundary.
+        ContentValues[] pets = new ContentValues[23];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = pet(new String[] { "Rex", "Kit", "Tom" }[i % 3], "Tabby");
+        }
+        mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+
+        List<String> keys = new ArrayList<>();
+        Uri page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, 5);
+        while (true) {
+            Cursor cursor = mResolver.query(page, PetEntry.SUMMARY_PROJECTION, null, null, null);
+            try {
+                String name = null;
+                long id = 0;
+                while (cursor.moveToNext()) {
+                    name = cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME));
+                    id = cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID));
+                    keys.add(name + "/" + id);
+                }
+                if (cursor.getCount() < 5) {
+                    break;
+                }
+                page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_NAME, 5, name, id);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(allKeys("name, _id"), keys);
+    }
+
+    @Test
+    public void pagesByIdNeitherSkipNorRepeatPets() {
+        ContentValues[] pets = new ContentValues[12];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = pet("Rex", "Tabby");
+        }
+        mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+        // A gap in the ids, as left by a delete.
+        mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 5), null, null);
+
+        List<String> keys = new ArrayList<>();
+        Uri page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_ID, 4);
+        while (true) {
+            Cursor cursor = mResolver.query(page, PetEntry.SUMMARY_PROJECTION, null, null, null);
+            try {
+                long id = 0;
+                while (cursor.moveToNext()) {
+                    id = cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID));
+                    keys.add("Rex/" + id);
+                }
+                if (cursor.getCount() < 4) {
+                    break;
+                }
+                page = PetEntry.buildPageUri(PetEntry.PAGE_ORDER_ID, 4, null, id);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        assertEquals(allKeys("_id"), keys);
+    }
+
+    @Test
+    public void filteredDeleteIsRejectedAndDeletesNothing() {
+        mResolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        mResolver.insert(PetEntry.CONTENT_URI, pet("Rex", "Boxer"));
+        PetFilter boxers = new PetFilter().breedEquals("Boxer");
+
+        for (Uri uri : new Uri[] { boxers.applyTo(PetEntry.CONTENT_URI),
+                boxers.applyTo(PetEntry.PURGE_URI) }) {
+            try {
+                mResolver.delete(uri, null, null);
+                fail("Deleted through a filter: " + uri);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(2, count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void filteredUpdateIsRejectedAndUpdatesNothing() {
+        mResolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+
+        try {
+            mResolver.update(new PetFilter().namePrefix("Re").applyTo(PetEntry.CONTENT_URI),
+                    values, null, null);
+            fail("Updated through a filter");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, count(new PetFilter().namePrefix("Tom").applyTo(PetEntry.CONTENT_URI)));
+    }
+
+    /**
+     * Every pet as "name/_id" in the given order, read in one query to compare pages against.
+     */
+    private List<String> allKeys(String orderBy) {
+        List<String> keys = new ArrayList<>();
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, PetEntry.SUMMARY_PROJECTION, null,
+                null, orderBy);
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME))
+                        + "/" + cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    static ContentValues pet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        return values;
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] { PetEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetRowCacheTest {
+
+    private static final String[] NAME = { PetEntry.COLUMN_PET_NAME };
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private Uri mTom;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mTom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+    }
+
+    @Test
+    public void rowReadBeforeAnInvalidationIsNotCached() {
+        PetRowCache cache = new PetRowCache(10);
+        int generation = cache.generation();
+        cache.remove(1);
+
+        cache.put(1, row(1, "Tom"), generation);
+
+        assertNull(cache.get(1, null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rowReadBeforeAClearIsNotCached() {
+        PetRowCache cache = new PetRowCache(10);
+        int generation = cache.generation();
+        cache.clear();
+
+        cache.put(1, row(1, "Tom"), generation);
+
+        assertNull(cache.get(1, null));
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        assertEquals("Tom", name(mTom));
+        assertEquals("Tom", name(mTom));
+        assertEquals("Tom", name(mTom));
+
+        Bundle stats = stats();
+        assertEquals(1, stats.getInt(PetContract.KEY_CACHE_MISSES));
+        assertEquals(2, stats.getInt(PetContract.KEY_CACHE_HITS));
+        assertEquals(1, stats.getInt(PetContract.KEY_CACHE_SIZE));
+    }
+
+    @Test
+    public void updateReplacesTheCachedRow() {
+        assertEquals("Tom", name(mTom));
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        assertEquals(1, mResolver.update(mTom, values, null, null));
+
+        assertEquals("Rex", name(mTom));
+    }
+
+    @Test
+    public void updateThroughASelectionReplacesTheCachedRow() {
+        assertEquals("Tom", name(mTom));
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        mResolver.update(PetEntry.CONTENT_URI, values, PetEntry.COLUMN_PET_NAME + " = ?",
+                new String[] { "Tom" });
+
+        assertEquals("Rex", name(mTom));
+    }
+
+    @Test
+    public void deletedPetIsNoLongerServed() {
+        assertEquals("Tom", name(mTom));
+
+        assertEquals(1, mResolver.delete(mTom, null, null));
+
+        assertNull(name(mTom));
+    }
+
+    @Test
+    public void bulkInsertLeavesCachedRowsCorrect() {
+        assertEquals("Tom", name(mTom));
+
+        mResolver.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] {
+                PetProviderTest.pet("Rex", "Boxer"), PetProviderTest.pet("Kit", "Tabby") });
+
+        assertEquals("Tom", name(mTom));
+        assertEquals("Rex", name(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                ContentUris.parseId(mTom) + 1)));
+    }
+
+    @Test
+    public void restoreEmptiesTheCache() throws Exception {
+        File backup = new File(RuntimeEnvironment.application.getCacheDir(), "pets.backup");
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application);
+        FileOutputStream out = new FileOutputStream(backup);
+        try {
+            helper.backupTo(out);
+        } finally {
+            out.close();
+            helper.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        mResolver.update(mTom, values, null, null);
+        assertEquals("Rex", name(mTom));
+
+        InputStream in = new FileInputStream(backup);
+        try {
+            mProvider.restore(in);
+        } finally {
+            in.close();
+            backup.delete();
+        }
+
+        assertEquals(0, stats().getInt(PetContract.KEY_CACHE_SIZE));
+        assertEquals("Tom", name(mTom));
+    }
+
+    /**
+     * The name of the given pet, or null if there is no such pet.
+     */
+    private String name(Uri uri) {
+        Cursor cursor = mResolver.query(uri, NAME, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle stats() {
+        return mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_GET_ROW_CACHE_STATS,
+                null, null);
+    }
+
+    /**
+     * A cursor over {@link PetRowCache#COLUMNS} positioned on a single pet.
+     */
+    private static Cursor row(long id, String name) {
+        MatrixCursor cursor = new MatrixCursor(PetRowCache.COLUMNS);
+        cursor.addRow(new Object[] { id, name, "Tabby", PetEntry.GENDER_UNKNOWN, 4, null });
+        cursor.moveToFirst();
+        return cursor;
+    }
+}
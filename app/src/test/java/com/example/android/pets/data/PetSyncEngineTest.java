@@ -0,0 +1,489 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs the provider against a local server that implements the two calls of
+ * {@link SyncHttpClient}, keeping everything pushed and serving its own list of changes a few
+ * at a time.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetSyncEngineTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    // Older than the photo sweep's grace period.
+    private static final long OLD_MS = 2 * 60 * 1000;
+
+    private MockSyncServer mServer;
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mServer = new MockSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void localChangesArePushedOnce() throws Exception {
+        mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Rex", "Boxer"));
+
+        Bundle result = sync();
+        assertNull(result.getString(PetContract.KEY_SYNC_ERROR));
+        assertEquals(2, result.getInt(PetContract.KEY_SYNC_PUSHED));
+        assertEquals(Arrays.asList("Tom", "Rex"), Arrays.asList(
+                mServer.pushed(0).getString(PetEntry.COLUMN_PET_NAME),
+                mServer.pushed(1).getString(PetEntry.COLUMN_PET_NAME)));
+        assertEquals("Tabby", mServer.pushed(0).getString(PetEntry.COLUMN_PET_BREED));
+
+        assertEquals(0, sync().getInt(PetContract.KEY_SYNC_PUSHED));
+        assertEquals(2, mServer.pushedCount());
+    }
+
+    @Test
+    public void pullPagesThroughTheServersCursorUntilThereIsNoMore() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mServer.add(remotePet("remote-" + i, "Pet " + i, 1000));
+        }
+
+        Bundle result = sync();
+        assertEquals(5, result.getInt(PetContract.KEY_SYNC_PULLED));
+        // Pages of two: from the start, then after the cursor each page handed out.
+        assertEquals(Arrays.asList(null, "2", "4"), mServer.pullCursors());
+        assertEquals(5, count());
+        // Pulled pets are not pushed back.
+        assertEquals(0, result.getInt(PetContract.KEY_SYNC_PUSHED));
+
+        mServer.add(remotePet("remote-5", "Pet 5", 1000));
+        assertEquals(1, sync().getInt(PetContract.KEY_SYNC_PULLED));
+        assertEquals("5", mServer.pullCursors().get(3));
+        assertEquals(6, count());
+    }
+
+    @Test
+    public void tombstoneDeletesThePetWhateverItsTime() throws Exception {
+        Uri tom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        sync();
+        JSONObject pushed = mServer.pushed(0);
+        String syncId = pushed.getString("id");
+        mProvider.storePhoto(ContentUris.parseId(tom),
+                new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+        File photos = new File(RuntimeEnvironment.application.getFilesDir(),
+                PetProvider.PHOTO_DIRECTORY);
+        for (File file : photos.listFiles()) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - OLD_MS));
+        }
+
+        // Deleted elsewhere before Tom was last changed here; the delete still wins.
+        JSONObject tombstone = new JSONObject();
+        tombstone.put("id", syncId);
+        tombstone.put("deleted", true);
+        tombstone.put("deleted_at", pushed.getLong("name_at") - 1000);
+        mServer.add(tombstone);
+        assertEquals(1, sync().getInt(PetContract.KEY_SYNC_PULLED));
+        assertEquals(0, count());
+        awaitEmpty(photos);
+
+        // A later edit of the same pet from a device that missed the delete.
+        mServer.add(remotePet(syncId, "Tom", pushed.getLong("name_at") + 1000));
+        sync();
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void localDeleteWinsOverARemoteEdit() throws Exception {
+        Uri tom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        sync();
+        JSONObject pushed = mServer.pushed(0);
+        mResolver.delete(tom, null, null);
+
+        mServer.add(remotePet(pushed.getString("id"), "Rex", pushed.getLong("name_at") + 1000));
+        Bundle result = sync();
+
+        assertEquals(0, count());
+        // The tombstone is pushed, so the server deletes the pet as well.
+        assertEquals(1, result.getInt(PetContract.KEY_SYNC_PUSHED));
+        assertTrue(mServer.pushed(1).getBoolean("deleted"));
+    }
+
+    @Test
+    public void eachColumnKeepsItsLatestChange() throws Exception {
+        Uri tom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        sync();
+        JSONObject local = mServer.pushed(0);
+
+        JSONObject remote = new JSONObject();
+        remote.put("id", local.getString("id"));
+        // Changed later elsewhere: wins.
+        remote.put("name", "Rex");
+        remote.put("name_at", local.getLong("name_at") + 1000);
+        // Changed earlier elsewhere: loses.
+        remote.put("weight", 99);
+        remote.put("weight_at", local.getLong("weight_at") - 1000);
+        // Changed at the same time: the larger value wins.
+        remote.put("gender", PetEntry.GENDER_FEMALE);
+        remote.put("gender_at", local.getLong("gender_at"));
+        remote.put("breed", "Abyssinian");
+        remote.put("breed_at", local.getLong("breed_at"));
+        mServer.add(remote);
+        sync();
+
+        Pet pet = pet(tom);
+        assertEquals("Rex", pet.getName());
+        assertEquals(4, pet.getWeight());
+        assertEquals(PetEntry.GENDER_FEMALE, pet.getGender());
+        assertEquals("Tabby", pet.getBreed());
+    }
+
+    @Test
+    public void changePushedTwiceAndPulledBackChangesNothing() throws Exception {
+        Uri tom = mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        // The server stores the push but the answer is lost, so the change is sent again.
+        mServer.failNextPush();
+        Bundle failed = sync();
+        assertNotNull(failed.getString(PetContract.KEY_SYNC_ERROR));
+        assertEquals(0, failed.getInt(PetContract.KEY_SYNC_PUSHED));
+        assertEquals(1, sync().getInt(PetContract.KEY_SYNC_PUSHED));
+        assertEquals(2, mServer.pushedCount());
+        assertEquals(mServer.pushed(0).toString(), mServer.pushed(1).toString());
+
+        // The server hands both copies back.
+        mServer.add(mServer.pushed(0));
+        mServer.add(mServer.pushed(1));
+        Bundle result = sync();
+
+        assertEquals(2, result.getInt(PetContract.KEY_SYNC_PULLED));
+        assertEquals(1, count());
+        assertEquals("Tom", pet(tom).getName());
+        // Nothing changed, so nothing is pushed again.
+        assertEquals(0, result.getInt(PetContract.KEY_SYNC_PUSHED));
+        assertEquals(0, sync().getInt(PetContract.KEY_SYNC_PUSHED));
+    }
+
+    @Test
+    public void restoreIsNotHeldUpByTheServerAndStopsTheSync() throws Exception {
+        mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        final File backup = new File(RuntimeEnvironment.application.getCacheDir(), "pets.backup");
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application);
+        FileOutputStream out = new FileOutputStream(backup);
+        try {
+            helper.backupTo(out);
+        } finally {
+            out.close();
+            helper.close();
+        }
+        mServer.add(remotePet("remote-0", "Rex", 1000));
+        // Restores while the sync waits for the pull, which would deadlock if the sync held
+        // the database lock meanwhile.
+        final AtomicBoolean restored = new AtomicBoolean();
+        mServer.beforePull(new Runnable() {
+            @Override
+            public void run() {
+                Thread restore = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            InputStream in = new FileInputStream(backup);
+                            try {
+                                mProvider.restore(in);
+                                restored.set(true);
+                            } finally {
+                                in.close();
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                restore.start();
+                try {
+                    restore.join(TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Bundle result = sync();
+        backup.delete();
+
+        assertTrue(restored.get());
+        // The pull cursor and pushed sequence belong to the database the sync started on.
+        assertNotNull(result.getString(PetContract.KEY_SYNC_ERROR));
+        assertEquals(0, result.getInt(PetContract.KEY_SYNC_PULLED));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void winsComparesTimesThenValues() {
+        assertTrue(PetSyncEngine.wins(2, "A", 1, "B"));
+        assertFalse(PetSyncEngine.wins(1, "B", 2, "A"));
+        assertTrue(PetSyncEngine.wins(1, "B", 1, "A"));
+        assertFalse(PetSyncEngine.wins(1, "A", 1, "B"));
+        assertTrue(PetSyncEngine.wins(1, 5, 1, 4));
+        // Equal values never win, so applying a change twice changes nothing.
+        assertFalse(PetSyncEngine.wins(1, "A", 1, "A"));
+        assertTrue(PetSyncEngine.wins(1, "A", 1, null));
+        assertFalse(PetSyncEngine.wins(1, null, 1, "A"));
+        assertFalse(PetSyncEngine.wins(1, null, 1, null));
+    }
+
+    private Bundle sync() {
+        return mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SYNC, mServer.endpoint(),
+                null);
+    }
+
+    private int count() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Pet pet(Uri uri) {
+        PetCursor cursor = new PetCursor(mResolver.query(uri, null, null, null, null));
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getPet();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static JSONObject remotePet(String syncId, String name, long changedAt)
+            throws JSONException {
+        JSONObject change = new JSONObject();
+        change.put("id", syncId);
+        change.put("name", name);
+        change.put("name_at", changedAt);
+        change.put("breed", "Tabby");
+        change.put("breed_at", changedAt);
+        change.put("gender", PetEntry.GENDER_UNKNOWN);
+        change.put("gender_at", changedAt);
+        change.put("weight", 4);
+        change.put("weight_at", changedAt);
+        return change;
+    }
+
+    private static void awaitEmpty(File directory) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (directory.listFiles().length > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * The sync server: keeps every pushed change, and serves its own list of changes in pages
+     * of {@link #PAGE_SIZE}, the cursor being the position in that list.
+     */
+    private static class MockSyncServer implements HttpHandler {
+        private static final int PAGE_SIZE = 2;
+
+        private final HttpServer mServer;
+        private final List<JSONObject> mPushed = Collections.synchronizedList(
+                new ArrayList<JSONObject>());
+        private final List<JSONObject> mChanges = Collections.synchronizedList(
+                new ArrayList<JSONObject>());
+        private final List<String> mPullCursors = Collections.synchronizedList(
+                new ArrayList<String>());
+        private volatile boolean mFailNextPush;
+        private volatile Runnable mBeforePull;
+
+        MockSyncServer() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            mServer.createContext("/changes", this);
+            mServer.start();
+        }
+
+        String endpoint() {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+        }
+
+        void stop() {
+            mServer.stop(0);
+        }
+
+        void add(JSONObject change) {
+            mChanges.add(change);
+        }
+
+        JSONObject pushed(int index) {
+            return mPushed.get(index);
+        }
+
+        int pushedCount() {
+            return mPushed.size();
+        }
+
+        List<String> pullCursors() {
+            return mPullCursors;
+        }
+
+        /**
+         * Store the next push but answer it with an error.
+         */
+        void failNextPush() {
+            mFailNextPush = true;
+        }
+
+        /**
+         * Run the given code on the server thread before answering each pull.
+         */
+        void beforePull(Runnable runnable) {
+            mBeforePull = runnable;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    handlePush(exchange);
+                } else {
+                    handlePull(exchange);
+                }
+            } catch (JSONException e) {
+                exchange.sendResponseHeaders(400, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void handlePush(HttpExchange exchange) throws IOException, JSONException {
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            JSONArray changes = new JSONObject(read(in)).getJSONArray("changes");
+            for (int i = 0; i < changes.length(); i++) {
+                mPushed.add(changes.getJSONObject(i));
+            }
+            if (mFailNextPush) {
+                mFailNextPush = false;
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            respond(exchange, new JSONObject());
+        }
+
+        private void handlePull(HttpExchange exchange) throws IOException, JSONException {
+            Runnable beforePull = mBeforePull;
+            if (beforePull != null) {
+                beforePull.run();
+            }
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String since = query.get("since");
+            mPullCursors.add(since);
+            int start = since == null ? 0 : Integer.parseInt(since);
+            int end = Math.min(start + PAGE_SIZE, mChanges.size());
+            JSONArray page = new JSONArray();
+            for (int i = start; i < end; i++) {
+                page.put(mChanges.get(i));
+            }
+            JSONObject body = new JSONObject();
+            body.put("changes", page);
+            body.put("cursor", String.valueOf(end));
+            body.put("more", end < mChanges.size());
+            respond(exchange, body);
+        }
+
+        /**
+         * Answer with the given JSON, gzipped as the client asks for.
+         */
+        private static void respond(HttpExchange exchange, JSONObject body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+            try {
+                out.write(body.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+
+        private static Map<String, String> query(String rawQuery) throws IOException {
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery == null) {
+                return query;
+            }
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+            return query;
+        }
+
+        private static String read(InputStream in) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("UTF-8");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetWriterTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private PetWriter mWriter;
+    private RecordingProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(RecordingProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mWriter = new PetWriter(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void writesRunOffTheMainLooper() throws InterruptedException {
+        RecordingCallback<Uri> inserted = new RecordingCallback<>();
+        RecordingCallback<Integer> updated = new RecordingCallback<>();
+        RecordingCallback<Integer> deleted = new RecordingCallback<>();
+        Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+
+        mWriter.insert(PetEntry.CONTENT_URI, pet("Tom"), inserted);
+        mWriter.update(petUri, pet("Tom"), null, null, updated);
+        mWriter.delete(petUri, null, null, deleted);
+        deleted.await();
+
+        // Every call reached the provider, none of them on the main thread.
+        assertEquals(3, mProvider.mCallsOnMainThread.size());
+        assertFalse(mProvider.mCallsOnMainThread.contains(true));
+        // The results came back in order, on the main thread.
+        assertEquals(petUri, inserted.mResult);
+        assertEquals(Integer.valueOf(1), updated.mResult);
+        assertEquals(Integer.valueOf(1), deleted.mResult);
+        assertTrue(inserted.mOnMainThread && updated.mOnMainThread && deleted.mOnMainThread);
+    }
+
+    @Test
+    public void failureIsReportedOnTheMainLooper() throws InterruptedException {
+        RecordingCallback<Uri> inserted = new RecordingCallback<>();
+
+        mWriter.insert(PetEntry.CONTENT_URI, pet(null), inserted);
+        inserted.await();
+
+        assertNotNull(inserted.mFailure);
+        assertTrue(inserted.mOnMainThread);
+    }
+
+    @Test
+    public void insertThatReturnsNoUriIsReportedAsAFailure() throws InterruptedException {
+        RecordingCallback<Uri> inserted = new RecordingCallback<>();
+
+        mWriter.insert(PetEntry.CONTENT_URI, pet(RecordingProvider.NOT_INSERTED), inserted);
+        inserted.await();
+
+        assertNull(inserted.mResult);
+        assertNotNull(inserted.mFailure);
+        assertTrue(inserted.mOnMainThread);
+    }
+
+    private static ContentValues pet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        return values;
+    }
+
+    /**
+     * Records which thread each write runs on. Rejects pets without a name, like PetProvider,
+     * and returns no uri for a pet named {@link #NOT_INSERTED}, as PetProvider does when SQLite
+     * fails to insert the row.
+     */
+    public static class RecordingProvider extends ContentProvider {
+        static final String NOT_INSERTED = "Not inserted";
+
+        final List<Boolean> mCallsOnMainThread =
+                Collections.synchronizedList(new ArrayList<Boolean>());
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            record();
+            if (values.getAsString(PetEntry.COLUMN_PET_NAME) == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+            if (NOT_INSERTED.equals(values.getAsString(PetEntry.COLUMN_PET_NAME))) {
+                return null;
+            }
+            return ContentUris.withAppendedId(uri, 1);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            record();
+            return 1;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            record();
+            return 1;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        private void record() {
+            mCallsOnMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * Keeps the outcome of a write, and which thread it was reported on.
+     */
+    private static class RecordingCallback<T> implements PetWriter.Callback<T> {
+        volatile boolean mDone;
+        T mResult;
+        RuntimeException mFailure;
+        boolean mOnMainThread;
+
+        @Override
+        public void onSuccess(T result) {
+            mResult = result;
+            finish();
+        }
+
+        @Override
+        public void onFailure(RuntimeException e) {
+            mFailure = e;
+            finish();
+        }
+
+        private void finish() {
+            mOnMainThread = Looper.myLooper() == Looper.getMainLooper();
+            mDone = true;
+        }
+
+        /**
+         * Run the main looper until the outcome has been posted to it.
+         */
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!mDone && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            }
+            assertTrue("The write never reported back", mDone);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ProviderMetricsTest {
+
+    private static final int PETS = 100;
+
+    private final SparseArray<String> mMatchNames = new SparseArray<>();
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mMatchNames.put(PETS, "pets");
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void callsAreCountedPerMatchAndOperation() {
+        ProviderMetrics metrics = new ProviderMetrics(true);
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, metrics.start(), 3);
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, metrics.start(), 4);
+        metrics.record(PETS, ProviderMetrics.OP_INSERT, metrics.start(), 1);
+
+        Bundle bundle = metrics.toBundle(mMatchNames);
+        Bundle queries = bundle.getBundle("pets/query");
+        assertEquals(2, queries.getLong(PetContract.KEY_METRICS_CALLS));
+        assertEquals(7, queries.getLong(PetContract.KEY_METRICS_ROWS));
+        assertEquals(2, sum(queries.getLongArray(PetContract.KEY_METRICS_LATENCY_HISTOGRAM)));
+        assertEquals(1, bundle.getBundle("pets/insert").getLong(PetContract.KEY_METRICS_CALLS));
+    }
+
+    @Test
+    public void unknownMatchIsKeyedByNumber() {
+        ProviderMetrics metrics = new ProviderMetrics(true);
+        metrics.record(7, ProviderMetrics.OP_DELETE, metrics.start(), 1);
+
+        assertEquals(1, metrics.toBundle(mMatchNames).getBundle("7/delete")
+                .getLong(PetContract.KEY_METRICS_CALLS));
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() throws Exception {
+        ProviderMetrics metrics = new ProviderMetrics(false);
+        assertEquals(0, metrics.start());
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, metrics.start(), 3);
+
+        Bundle bundle = metrics.toBundle(mMatchNames);
+        assertFalse(bundle.getBoolean(PetContract.KEY_METRICS_ENABLED));
+        assertEquals(Collections.singleton(PetContract.KEY_METRICS_ENABLED), bundle.keySet());
+        assertEquals(1, new JSONObject(metrics.toJson(mMatchNames)).length());
+    }
+
+    @Test
+    public void callStartedWhileDisabledIsNotRecorded() {
+        ProviderMetrics metrics = new ProviderMetrics(false);
+        long start = metrics.start();
+        metrics.setEnabled(true);
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, start, 3);
+
+        assertEquals(1, metrics.toBundle(mMatchNames).size());
+    }
+
+    @Test
+    public void resetDropsEverythingRecorded() throws Exception {
+        ProviderMetrics metrics = new ProviderMetrics(true);
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, metrics.start(), 3);
+        metrics.reset();
+
+        assertTrue(metrics.isEnabled());
+        assertEquals(1, metrics.toBundle(mMatchNames).size());
+        assertEquals(1, new JSONObject(metrics.toJson(mMatchNames)).length());
+
+        metrics.record(PETS, ProviderMetrics.OP_QUERY, metrics.start(), 5);
+        assertEquals(5, metrics.toBundle(mMatchNames).getBundle("pets/query")
+                .getLong(PetContract.KEY_METRICS_ROWS));
+    }
+
+    @Test
+    public void jsonHasTheSameNumbersAsTheBundle() throws Exception {
+        ProviderMetrics metrics = new ProviderMetrics(true);
+        metrics.record(PETS, ProviderMetrics.OP_UPDATE, metrics.start(), 2);
+
+        JSONObject updates = new JSONObject(metrics.toJson(mMatchNames))
+                .getJSONObject("pets/update");
+        assertEquals(1, updates.getLong(PetContract.KEY_METRICS_CALLS));
+        assertEquals(2, updates.getLong(PetContract.KEY_METRICS_ROWS));
+        assertEquals(ProviderMetrics.BUCKET_COUNT,
+                updates.getJSONArray(PetContract.KEY_METRICS_LATENCY_HISTOGRAM).length());
+    }
+
+    @Test
+    public void providerStopsRecordingWhenDisabledAndResets() {
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_METRICS_ENABLED, "true", null);
+        mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Tom", "Tabby"));
+        assertEquals(1, metrics().getBundle("pets/insert").getLong(PetContract.KEY_METRICS_CALLS));
+
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_METRICS_ENABLED, "false", null);
+        mResolver.insert(PetEntry.CONTENT_URI, PetProviderTest.pet("Rex", "Boxer"));
+        assertEquals(1, metrics().getBundle("pets/insert").getLong(PetContract.KEY_METRICS_CALLS));
+
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_RESET_METRICS, null, null);
+        Set<String> keys = new HashSet<>(metrics().keySet());
+        assertEquals(Collections.singleton(PetContract.KEY_METRICS_ENABLED), keys);
+    }
+
+    private Bundle metrics() {
+        return mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_GET_METRICS, null, null);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Reads the plan SQLite chooses for a statement, for tests that check a query is answered
+ * from the index it was written for.
+ */
+final class QueryPlans {
+
+    private QueryPlans() {
+    }
+
+    /**
+     * The detail lines of EXPLAIN QUERY PLAN for the given statement, one per line.
+     */
+    static String explain(SQLiteDatabase db, String sql, String... args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class StartupTraceTest {
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void stepOverItsBudgetIsReported() {
+        Bundle marks = new Bundle();
+        marks.putLong(StartupTrace.PROVIDER_CREATED,
+                StartupTrace.budget(StartupTrace.PROVIDER_CREATED));
+        marks.putLong(StartupTrace.DATABASE_OPEN,
+                StartupTrace.budget(StartupTrace.DATABASE_OPEN) + 1);
+
+        assertEquals(Arrays.asList(StartupTrace.DATABASE_OPEN + " took "
+                        + (StartupTrace.budget(StartupTrace.DATABASE_OPEN) + 1)
+                        + "ms, over its budget of "
+                        + StartupTrace.budget(StartupTrace.DATABASE_OPEN) + "ms"),
+                StartupTrace.overBudget(marks));
+    }
+
+    /**
+     * Creates the provider and opens a new database the way a cold start does, timed on the
+     * wall clock since Robolectric's clock does not move on its own, and fails if either step
+     * is over its budget.
+     */
+    @Test
+    public void providerAndDatabaseOpenWithinBudget() {
+        // Load Robolectric's SQLite library first; an app process has it already.
+        SQLiteDatabase.create(null).close();
+
+        long start = System.nanoTime();
+        Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+        long providerCreated = elapsedMs(start);
+        Cursor cursor = RuntimeEnvironment.application.getContentResolver().query(
+                PetEntry.CONTENT_URI, PetEntry.SUMMARY_PROJECTION, null, null, null);
+        cursor.close();
+        long databaseOpen = elapsedMs(start);
+
+        Bundle marks = new Bundle();
+        marks.putLong(StartupTrace.PROVIDER_CREATED, providerCreated);
+        marks.putLong(StartupTrace.DATABASE_OPEN, databaseOpen);
+        assertEquals(Collections.<String>emptyList(), StartupTrace.overBudget(marks));
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}